@@ -0,0 +1,80 @@
+package com.sequencing.appchains;
+
+/**
+ * Concurrency limit of a single endpoint adjusted from observed round trip
+ * times (gradient algorithm). While latency stays within a tolerance of the
+ * lowest observed one the limit grows; once requests start queueing on the
+ * server and latency climbs it shrinks proportionally, and failed or
+ * rejected requests back it off multiplicatively.
+ */
+class AdaptiveConcurrencyLimit
+{
+	private final static int INITIAL_LIMIT = 20;
+
+	private final static int MIN_LIMIT = 2;
+
+	private final static int MAX_LIMIT = 256;
+
+	/**
+	 * Latency increase over the baseline tolerated before the limit shrinks
+	 */
+	private final static double RTT_TOLERANCE = 2.0;
+
+	/**
+	 * Weight of a single sample in the limit
+	 */
+	private final static double SMOOTHING = 0.2;
+
+	/**
+	 * Multiplier applied to the limit on failure
+	 */
+	private final static double BACKOFF_RATIO = 0.9;
+
+	/**
+	 * Relative growth of the baseline latency per sample, lets the baseline
+	 * follow the server when it becomes permanently slower
+	 */
+	private final static double BASELINE_DRIFT = 0.001;
+
+	private volatile double limit = INITIAL_LIMIT;
+	private double baselineNanos;
+
+	int getLimit()
+	{
+		return (int) limit;
+	}
+
+	/**
+	 * Records successful request
+	 * @param rttNanos round trip time
+	 * @param inFlight requests in flight when the request completed
+	 */
+	synchronized void onSample(long rttNanos, int inFlight)
+	{
+		if (rttNanos <= 0)
+			return;
+
+		baselineNanos = baselineNanos == 0 ? rttNanos : Math.min(rttNanos, baselineNanos * (1 + BASELINE_DRIFT));
+
+		// a limit that isn't used gives no evidence that more concurrency is fine
+		if (inFlight * 2 < limit)
+			return;
+
+		double gradient = Math.max(0.5, Math.min(1.0, RTT_TOLERANCE * baselineNanos / rttNanos));
+		double target = limit * gradient + Math.sqrt(limit);
+		limit = clamp(limit * (1 - SMOOTHING) + target * SMOOTHING);
+	}
+
+	/**
+	 * Records failed, timed out or rejected request
+	 */
+	synchronized void onDrop()
+	{
+		limit = clamp(limit * BACKOFF_RATIO);
+	}
+
+	private static double clamp(double value)
+	{
+		return Math.max(MIN_LIMIT, Math.min(MAX_LIMIT, value));
+	}
+}
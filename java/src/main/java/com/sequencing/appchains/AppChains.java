@@ -1,32 +1,68 @@
 package com.sequencing.appchains;
 
 import java.io.*;
+import java.net.ConnectException;
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
 import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.UnknownHostException;
 import java.net.URL;
 import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
 
-import com.google.gson.GsonBuilder;
-import com.google.gson.reflect.TypeToken;
-import com.sun.deploy.util.StringUtils;
+import javax.management.ObjectName;
 
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * AppChains client. Instances are safe for concurrent use by any number of
+ * threads and are meant to be shared: configuration is fixed at construction,
+ * per-call state (deadline, priority, submitted jobs) lives in the calling
+ * thread's {@link CallHandle}, and shared bookkeeping is kept in concurrent
+ * structures of the {@link AppChainsRuntime}. The OAuth token may be replaced
+ * at any time, requests already sent keep the token they were sent with.
+ * Hedging, file cache, health checks and JMX are settings of the runtime: a
+ * client owning its runtime forwards them, views created with
+ * {@link AppChainsRuntime#forToken(String)} reject them.
+ */
 public class AppChains
 {
 	/**
-	 * Security token supplied by the client
+	 * Security token supplied by the client, read once per HTTP request
 	 */
-	private String token;
+	private final AtomicReference<String> token;
 	
 	/**
-	 * Remote hostname to send requests to
+	 * Endpoints, caches and pollers shared with other clients of the same runtime
+	 */
+	private final AppChainsRuntime runtime;
+
+	/**
+	 * Set for views of a runtime shared with other clients
 	 */
-	private String chainsHostname;
+	private final boolean view;
 	
 	/**
 	 * Schema to access remote API (http or https)
@@ -38,11 +74,6 @@ public class AppChains
 	 */
 	private final static int DEFAULT_APPCHAINS_PORT = 443;
 	
-	/**
-	 * Timeout to wait between tries to update Job status in seconds
-	 */
-	private final static int DEFAULT_REPORT_RETRY_TIMEOUT = 1;
-	
 	/**
 	 * Default hostname for Beacon requests
 	 */
@@ -53,6 +84,47 @@ public class AppChains
 	 */
 	private final static String PROTOCOL_VERSION = "v2";
 
+	/**
+	 * Charset used to encode spilled batch results
+	 */
+	private final static Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Type json responses are deserialized to
+	 */
+	private final static Type JSON_OBJECT_TYPE = new TypeToken<Object>(){}.getType();
+
+	/**
+	 * Timeout to establish connection to remote API in milliseconds
+	 */
+	private final static int DEFAULT_CONNECT_TIMEOUT_MILLIS = 30000;
+
+	/**
+	 * Timeout to wait for remote API response data in milliseconds
+	 */
+	private final static int DEFAULT_READ_TIMEOUT_MILLIS = 120000;
+
+	/**
+	 * Interval hedged requests check caller's cancellation with in milliseconds
+	 */
+	private final static long HEDGE_CANCELLATION_CHECK_MILLIS = 50;
+
+	/**
+	 * Claims hedged request whose caller gave up before any attempt succeeded
+	 */
+	private final static Object HEDGE_ABANDONED = new Object();
+
+	/**
+	 * Timeout for warm-up requests in milliseconds
+	 */
+	private final static int WARM_UP_TIMEOUT_MILLIS = 5000;
+
+	/**
+	 * Chunk size of streamed request bodies in bytes
+	 */
+	private final static int STREAMING_CHUNK_SIZE = 16 * 1024;
+
+
 	/**
 	 * Constructor that should be called in order to work
 	 * with methods that require authentication (i.e. getReport)
@@ -61,97 +133,1000 @@ public class AppChains
 	 */
 	public AppChains(String token, String chainsHostname)
 	{
-		this(chainsHostname);
-		this.token = token;
+		this(token, Arrays.asList(
+				new AppChainsEndpoint(DEFAULT_APPCHAINS_SCHEMA, chainsHostname, DEFAULT_APPCHAINS_PORT)));
+	}
+	
+	/**
+	 * Constructor that should be called in order to work
+	 * with methods that doesn't require authentication (i.e. getBeacon)
+	 * @param chainsHostname
+	 */
+	public AppChains(String chainsHostname)
+	{
+		this(null, chainsHostname);
+	}
+
+	/**
+	 * Constructor that optionally warms up the client before returning,
+	 * see {@link #warmUp()}
+	 * @param token OAuth security token
+	 * @param chainsHostname hostname to call
+	 * @param warmUp true to warm up client eagerly
+	 */
+	public AppChains(String token, String chainsHostname, boolean warmUp)
+	{
+		this(token, chainsHostname);
+
+		if (warmUp)
+			warmUp();
+	}
+
+	/**
+	 * Constructor that spreads requests across several equivalent endpoints
+	 * (i.e. regional gateways) and fails over between them
+	 * @param token OAuth security token
+	 * @param endpoints endpoints to call
+	 */
+	public AppChains(String token, List<AppChainsEndpoint> endpoints)
+	{
+		this(token, endpoints, new AppChainsEndpoint(DEFAULT_APPCHAINS_SCHEMA, BEACON_HOSTNAME, DEFAULT_APPCHAINS_PORT));
+	}
+
+	/**
+	 * Constructor that spreads requests across several equivalent endpoints
+	 * and uses custom endpoint for Beacon requests
+	 * @param token OAuth security token
+	 * @param endpoints endpoints to call
+	 * @param beaconEndpoint endpoint for Beacon requests
+	 */
+	public AppChains(String token, List<AppChainsEndpoint> endpoints, AppChainsEndpoint beaconEndpoint)
+	{
+		this(token, new AppChainsRuntime(endpoints, beaconEndpoint, false), false);
+	}
+
+	/**
+	 * Constructor of a client view sharing given runtime, see {@link AppChainsRuntime#forToken(String)}
+	 * @param token OAuth security token
+	 * @param runtime shared runtime
+	 */
+	AppChains(String token, AppChainsRuntime runtime)
+	{
+		this(token, runtime, true);
+	}
+
+	private AppChains(String token, AppChainsRuntime runtime, boolean view)
+	{
+		this.token = new AtomicReference<String>(token);
+		this.runtime = runtime;
+		this.view = view;
+	}
+
+	/**
+	 * @return OAuth token used for new requests
+	 */
+	public String getToken()
+	{
+		return token.get();
+	}
+
+	/**
+	 * Replaces OAuth token, i.e. after a refresh. Calls in progress use the
+	 * new token for their next request
+	 * @param token OAuth security token
+	 */
+	public void setToken(String token)
+	{
+		this.token.set(token);
+	}
+
+	/**
+	 * Replaces OAuth token only if it is still the expected one, so that of
+	 * several threads refreshing the same expired token only one installs
+	 * its result
+	 * @param expectedToken token the refresh started from
+	 * @param newToken refreshed OAuth token
+	 * @return true if token was replaced
+	 */
+	public boolean replaceToken(String expectedToken, String newToken)
+	{
+		return token.compareAndSet(expectedToken, newToken);
+	}
+	
+	// High level public API
+	
+	/**
+	 * Requests report
+	 * @param remoteMethodName REST endpoint name (i.e. StartApp)
+	 * @param applicationMethodName report/application specific identifier (i.e. MelanomaDsAppv)
+	 * @param datasourceId resource with data to use for report generation
+	 * @return
+	 */
+	public Report getReport(String remoteMethodName, String applicationMethodName, String datasourceId)
+	{
+		CallHandle implicit = enterImplicitCall();
+
+		try
+		{
+			RawReportJobResult rawReportJobResult =
+					getRawJobResult(submitReportJob(remoteMethodName, applicationMethodName, datasourceId));
+			return 	getReportImpl(rawReportJobResult);
+		}
+		finally
+		{
+			exitImplicitCall(implicit);
+		}
+	}
+	
+	/**
+	 * Requests report
+	 * @param remoteMethodName REST endpoint name (i.e. StartApp)
+	 * @param requestBody jsonified request body to send to server
+	 * @return
+	 */
+	public Report getReport(String remoteMethodName, String requestBody)
+	{
+		CallHandle implicit = enterImplicitCall();
+
+		try
+		{
+			RawReportJobResult rawReportJobResult =
+					getRawJobResult((Map<String, Object>) submitReportJob(remoteMethodName, requestBody));
+			return 	getReportImpl(rawReportJobResult);
+		}
+		finally
+		{
+			exitImplicitCall(implicit);
+		}
+	}
+
+	/**
+	 * Requests report within deadline / cancellation handle. When handle is
+	 * cancelled or expires polling stops, in-flight requests are aborted and
+	 * {@link CancellationException} is thrown
+	 * @param remoteMethodName REST endpoint name (i.e. StartApp)
+	 * @param applicationMethodName report/application specific identifier (i.e. MelanomaDsAppv)
+	 * @param datasourceId resource with data to use for report generation
+	 * @param handle deadline and cancellation handle
+	 * @return
+	 */
+	public Report getReport(String remoteMethodName, String applicationMethodName, String datasourceId,
+			CallHandle handle)
+	{
+		CallHandle previous = enterCall(handle);
+
+		try
+		{
+			return getReport(remoteMethodName, applicationMethodName, datasourceId);
+		}
+		catch (CancellationException e)
+		{
+			cancelJobsOnServer(handle);
+			throw e;
+		}
+		finally
+		{
+			releaseJobs(handle);
+			exitCall(previous);
+		}
+	}
+
+	/**
+	 * Requests reports for several chains within deadline / cancellation handle,
+	 * see {@link #getReport(String, String, String, CallHandle)}
+	 * @param remoteMethodName REST endpoint name (i.e. StartAppBatch)
+	 * @param appChainsParams map of chain identifier to datasource identifier
+	 * @param handle deadline and cancellation handle
+	 * @return reports keyed by chain identifier
+	 */
+	public Map<String, Report> getReportBatch(String remoteMethodName, Map<String, String> appChainsParams,
+			CallHandle handle)
+	{
+		CallHandle previous = enterCall(handle);
+
+		try
+		{
+			return getReportBatch(remoteMethodName, appChainsParams);
+		}
+		catch (CancellationException e)
+		{
+			cancelJobsOnServer(handle);
+			throw e;
+		}
+		finally
+		{
+			releaseJobs(handle);
+			exitCall(previous);
+		}
+	}
+
+	public Map<String, Report> getReportBatch(String remoteMethodName, Map<String, String> appChainsParams)
+	{
+		CallHandle implicit = enterImplicitCall();
+
+		try
+		{
+			List<Map<String, Object>> batchJobData  =
+					(List<Map<String, Object>>) submitReportJobImpl(remoteMethodName,
+							buildBatchReportRequestBody(appChainsParams.entrySet()), appChainsParams.keySet().toString());
+
+			return getBatchReportImpl(batchJobData);
+		}
+		finally
+		{
+			exitImplicitCall(implicit);
+		}
+	}
+
+	/**
+	 * Requests reports for chain/datasource pairs supplied by the iterator.
+	 * Pairs are serialized onto the connection as they are consumed, so
+	 * submission doesn't hold the whole batch in memory
+	 * @param remoteMethodName REST endpoint name (i.e. StartAppBatch)
+	 * @param appChainsParams chain identifier / datasource identifier pairs
+	 * @return reports keyed by chain identifier
+	 */
+	public Map<String, Report> getReportBatch(String remoteMethodName, Iterator<Entry<String, String>> appChainsParams)
+	{
+		CallHandle implicit = enterImplicitCall();
+
+		try
+		{
+			List<Map<String, Object>> batchJobData  =
+					(List<Map<String, Object>>) submitReportJobImpl(remoteMethodName,
+							buildBatchReportRequestBody(oneShot(appChainsParams)), null);
+
+			return getBatchReportImpl(batchJobData);
+		}
+		finally
+		{
+			exitImplicitCall(implicit);
+		}
+	}
+
+	/**
+	 * Requests reports for chain/datasource pairs supplied by the iterator keeping
+	 * at most maxReportsInHeap results in memory, see
+	 * {@link #getReportBatch(String, Map, int)} and {@link #getReportBatch(String, Iterator)}
+	 * @param remoteMethodName REST endpoint name (i.e. StartAppBatch)
+	 * @param appChainsParams chain identifier / datasource identifier pairs
+	 * @param maxReportsInHeap number of reports kept in heap
+	 * @return reports keyed by chain identifier
+	 */
+	public SpillingResultMap<Report> getReportBatch(String remoteMethodName, Iterator<Entry<String, String>> appChainsParams,
+			int maxReportsInHeap)
+	{
+		return getSpillingReportBatch(remoteMethodName, buildBatchReportRequestBody(oneShot(appChainsParams)), null,
+				maxReportsInHeap);
+	}
+
+	/**
+	 * Requests reports for several chains keeping at most maxReportsInHeap
+	 * results in memory, the rest is spilled to a temporary memory-mapped file.
+	 * Returned map should be closed once results are consumed
+	 * @param remoteMethodName REST endpoint name (i.e. StartAppBatch)
+	 * @param appChainsParams map of chain identifier to datasource identifier
+	 * @param maxReportsInHeap number of reports kept in heap
+	 * @return reports keyed by chain identifier
+	 */
+	public SpillingResultMap<Report> getReportBatch(String remoteMethodName, Map<String, String> appChainsParams,
+			int maxReportsInHeap)
+	{
+		return getSpillingReportBatch(remoteMethodName, buildBatchReportRequestBody(appChainsParams.entrySet()),
+				appChainsParams.keySet().toString(), maxReportsInHeap);
+	}
+
+	@SuppressWarnings("unchecked")
+	private SpillingResultMap<Report> getSpillingReportBatch(String remoteMethodName, JsonRequestBody requestBody,
+			String appCode, int maxReportsInHeap)
+	{
+		CallHandle implicit = enterImplicitCall();
+
+		try
+		{
+			List<Map<String, Object>> batchJobData  =
+					(List<Map<String, Object>>) submitReportJobImpl(remoteMethodName, requestBody, appCode);
+
+			SpillingResultMap<RawReportJobResult> jobs =
+					new SpillingResultMap<RawReportJobResult>(maxReportsInHeap, new RawReportJobResultCodec());
+			SpillingResultMap<Report> result = new SpillingResultMap<Report>(maxReportsInHeap, new ReportCodec());
+
+			try
+			{
+				getBatchRawReportImpl(batchJobData, jobs);
+				getBatchReportImpl(jobs, result);
+				return result;
+			}
+			catch (RuntimeException e)
+			{
+				closeQuietly(result);
+				throw e;
+			}
+			finally
+			{
+				closeQuietly(jobs);
+			}
+		}
+		finally
+		{
+			exitImplicitCall(implicit);
+		}
+	}
+
+	/**
+	 * Requests reports for a cohort of chain / datasource / parameters
+	 * combinations, i.e. one chain over thousands of samples. Requests are
+	 * submitted with StartAppBatch in groups of
+	 * {@link AppChainsRuntime#getBatchSubmitSize()} and polled together with
+	 * GetAppResultsBatch, so a cohort takes a handful of round trips
+	 * @param remoteMethodName REST endpoint name (i.e. StartAppBatch)
+	 * @param requests report requests with unique request identifiers, iterated twice
+	 * @return reports keyed by request identifier
+	 */
+	public Map<String, Report> getReportCohort(String remoteMethodName, Iterable<ReportRequest> requests)
+	{
+		CallHandle implicit = enterImplicitCall();
+
+		try
+		{
+			Set<String> requestIds = new HashSet<String>();
+
+			// duplicates are rejected before anything is submitted
+			for (ReportRequest request : requests)
+				if (!requestIds.add(request.getRequestId()))
+					throw new IllegalArgumentException(String.format("Duplicate request identifier %s", request.getRequestId()));
+
+			List<Map<String, Object>> batchJobData = new ArrayList<Map<String, Object>>(requestIds.size());
+			List<ReportRequest> group = new ArrayList<ReportRequest>();
+			int groupSize = runtime.getBatchSubmitSize();
+
+			for (ReportRequest request : requests)
+			{
+				group.add(request);
+
+				if (group.size() == groupSize)
+				{
+					batchJobData.addAll(submitCohortGroup(remoteMethodName, group));
+					group.clear();
+				}
+			}
+
+			if (!group.isEmpty())
+				batchJobData.addAll(submitCohortGroup(remoteMethodName, group));
+
+			return getBatchReportImpl(batchJobData);
+		}
+		finally
+		{
+			exitImplicitCall(implicit);
+		}
+	}
+
+	/**
+	 * Requests reports for a cohort within deadline / cancellation handle,
+	 * see {@link #getReportCohort(String, Iterable)}
+	 * @param remoteMethodName REST endpoint name (i.e. StartAppBatch)
+	 * @param requests report requests with unique request identifiers
+	 * @param handle deadline and cancellation handle
+	 * @return reports keyed by request identifier
+	 */
+	public Map<String, Report> getReportCohort(String remoteMethodName, Iterable<ReportRequest> requests,
+			CallHandle handle)
+	{
+		CallHandle previous = enterCall(handle);
+
+		try
+		{
+			return getReportCohort(remoteMethodName, requests);
+		}
+		catch (CancellationException e)
+		{
+			cancelJobsOnServer(handle);
+			throw e;
+		}
+		finally
+		{
+			releaseJobs(handle);
+			exitCall(previous);
+		}
+	}
+
+	/**
+	 * Submits group of cohort requests with a single batch request. Batch
+	 * response is keyed by chain identifier, so jobs are matched to requests
+	 * by their position
+	 * @return submitted jobs keyed by request identifier
+	 */
+	@SuppressWarnings("unchecked")
+	private List<Map<String, Object>> submitCohortGroup(String remoteMethodName, final List<ReportRequest> group)
+	{
+		JsonRequestBody requestBody = new JsonRequestBody()
+		{
+			void writeTo(JsonWriter writer) throws IOException
+			{
+				writer.beginObject().name("Pars").beginArray();
+				for (ReportRequest request : group) {
+					Map<String, Object> chain = buildReportRequestBody(request);
+					runtime.gson.toJson(chain, chain.getClass(), writer);
+				}
+				writer.endArray().endObject();
+			}
+		};
+
+		List<Map<String, Object>> submitted =
+				(List<Map<String, Object>>) submitReportJobImpl(remoteMethodName, requestBody, null);
+
+		if (submitted.size() != group.size())
+			throw new RuntimeException(String.format("Appchains returned %d jobs for batch of %d requests",
+					submitted.size(), group.size()));
+
+		List<Map<String, Object>> result = new ArrayList<Map<String, Object>>(group.size());
+
+		for (int i = 0; i < group.size(); i++)
+		{
+			ReportRequest request = group.get(i);
+			Object chainId = submitted.get(i).get("Key");
+
+			if (chainId != null && !chainId.equals(request.getChainId()))
+				throw new RuntimeException(String.format("Appchains returned job of chain %s for request %s",
+						chainId, request.getRequestId()));
+
+			Map<String, Object> batchJobDataItem = new HashMap<String, Object>(2);
+			batchJobDataItem.put("Key", request.getRequestId());
+			batchJobDataItem.put("Value", submitted.get(i).get("Value"));
+			result.add(batchJobDataItem);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Runs graph of dependent chains on a single datasource. Chains without
+	 * pending inputs are submitted together with a single batch request;
+	 * dependent chains are submitted as soon as all their inputs complete
+	 * and their condition holds, without waiting for unrelated chains
+	 * @param remoteMethodName REST endpoint name (i.e. StartAppBatch)
+	 * @param graph chains and their dependencies
+	 * @param datasourceId resource with data to use for report generation
+	 * @return reports of chains that ran keyed by chain identifier, chains whose
+	 *         condition didn't hold (or that depend on such chains) are absent
+	 */
+	@SuppressWarnings("unchecked")
+	public Map<String, Report> getReportGraph(String remoteMethodName, ChainGraph graph, String datasourceId)
+	{
+		CallHandle implicit = enterImplicitCall();
+
+		try
+		{
+			Map<String, Report> reports = new LinkedHashMap<String, Report>();
+			Set<String> resolved = new HashSet<String>();
+			Map<Integer, String> pending = new HashMap<Integer, String>();
+
+			submitReadyChains(remoteMethodName, graph, datasourceId, reports, resolved, pending);
+
+			while (!pending.isEmpty())
+			{
+				try
+				{
+					waitBeforePoll();
+
+					for (Map<String, Object> job : getBatchJobResponse(pending))
+					{
+						RawReportJobResult rawResult = getRawJobResult((Map<String, Object>) job.get("Value"));
+
+						if (rawResult.isCompleted())
+							reports.put(pending.remove(rawResult.getJobId()), processCompletedJob(rawResult));
+					}
+				}
+				catch (CancellationException e)
+				{
+					throw e;
+				}
+				catch (Exception e)
+				{
+					throw new RuntimeException(
+							String.format("Error processing jobs: %s", join(pending.keySet(), " ")), e);
+				}
+
+				submitReadyChains(remoteMethodName, graph, datasourceId, reports, resolved, pending);
+			}
+
+			return reports;
+		}
+		finally
+		{
+			exitImplicitCall(implicit);
+		}
+	}
+
+	/**
+	 * Runs graph of dependent chains within deadline / cancellation handle,
+	 * see {@link #getReportGraph(String, ChainGraph, String)}
+	 * @param remoteMethodName REST endpoint name (i.e. StartAppBatch)
+	 * @param graph chains and their dependencies
+	 * @param datasourceId resource with data to use for report generation
+	 * @param handle deadline and cancellation handle
+	 * @return reports of chains that ran keyed by chain identifier
+	 */
+	public Map<String, Report> getReportGraph(String remoteMethodName, ChainGraph graph, String datasourceId,
+			CallHandle handle)
+	{
+		CallHandle previous = enterCall(handle);
+
+		try
+		{
+			return getReportGraph(remoteMethodName, graph, datasourceId);
+		}
+		catch (CancellationException e)
+		{
+			cancelJobsOnServer(handle);
+			throw e;
+		}
+		finally
+		{
+			releaseJobs(handle);
+			exitCall(previous);
+		}
+	}
+
+	/**
+	 * Submits every chain whose inputs are complete and whose condition holds.
+	 * Chains completed right at submission may unlock further chains, so
+	 * submission repeats until nothing is ready
+	 * @param resolved chains that were submitted or skipped
+	 * @param pending chains being processed keyed by job identifier
+	 */
+	@SuppressWarnings("unchecked")
+	private void submitReadyChains(String remoteMethodName, ChainGraph graph, String datasourceId,
+			Map<String, Report> reports, Set<String> resolved, Map<Integer, String> pending)
+	{
+		while (true)
+		{
+			Map<String, String> ready = new LinkedHashMap<String, String>();
+
+			for (String chainId : graph.getChains())
+			{
+				if (resolved.contains(chainId))
+					continue;
+
+				Map<String, Report> inputs = new LinkedHashMap<String, Report>();
+				boolean waiting = false, skipped = false;
+
+				for (String dependency : graph.getDependencies(chainId))
+				{
+					if (reports.containsKey(dependency))
+						inputs.put(dependency, reports.get(dependency));
+					else if (resolved.contains(dependency) && !ready.containsKey(dependency)
+							&& !pending.containsValue(dependency))
+						skipped = true;
+					else
+						waiting = true;
+				}
+
+				if (waiting && !skipped)
+					continue;
+
+				resolved.add(chainId);
+				if (!skipped && (inputs.isEmpty() || graph.getCondition(chainId).isSatisfied(inputs)))
+					ready.put(chainId, datasourceId);
+			}
+
+			if (ready.isEmpty())
+				return;
+
+			List<Map<String, Object>> batchJobData = (List<Map<String, Object>>) submitReportJobImpl(remoteMethodName,
+					buildBatchReportRequestBody(ready.entrySet()), ready.keySet().toString());
+			boolean completed = false;
+
+			for (Map<String, Object> batchJobDataItem : batchJobData)
+			{
+				RawReportJobResult job = getRawJobResult((Map<String, Object>) batchJobDataItem.get("Value"));
+				String chainId = (String) batchJobDataItem.get("Key");
+
+				if (job.isCompleted())
+				{
+					reports.put(chainId, processCompletedJob(job));
+					completed = true;
+				}
+				else
+				{
+					pending.put(job.getJobId(), chainId);
+				}
+			}
+
+			if (!completed)
+				return;
+		}
+	}
+
+	private Map<String, Report> getBatchReportImpl(List<Map<String, Object>> batchJobData) {
+		Map<String, RawReportJobResult> jobs = getBatchRawReportImpl(batchJobData);
+		return getBatchReportImpl(jobs, new HashMap<String, Report>(jobs.size()));
+	}
+
+	private <T extends Map<String, Report>> T getBatchReportImpl(Map<String, RawReportJobResult> jobs, T result) {
+		for (Map.Entry<String, RawReportJobResult> job : jobs.entrySet()) {
+			result.put(job.getKey(), processCompletedJob(job.getValue()));
+		}
+		return result;
+	}
+
+	private CallHandle enterCall(CallHandle handle)
+	{
+		CallHandle previous = runtime.currentCall.get();
+		runtime.currentCall.set(handle);
+		return previous;
+	}
+
+	private void exitCall(CallHandle previous)
+	{
+		if (previous == null)
+			runtime.currentCall.remove();
+		else
+			runtime.currentCall.set(previous);
+	}
+
+	/**
+	 * Enters call made without a handle. Such calls get an implicit handle
+	 * without deadline so that their jobs are tracked and released however
+	 * the call ends
+	 * @return implicit handle to pass to {@link #exitImplicitCall(CallHandle)},
+	 *         null if current thread already runs a call
+	 */
+	private CallHandle enterImplicitCall()
+	{
+		if (runtime.currentCall.get() != null)
+			return null;
+
+		CallHandle handle = new CallHandle();
+		runtime.currentCall.set(handle);
+		return handle;
+	}
+
+	private void exitImplicitCall(CallHandle handle)
+	{
+		if (handle == null)
+			return;
+
+		try
+		{
+			releaseJobs(handle);
+		}
+		finally
+		{
+			runtime.currentCall.remove();
+		}
+	}
+
+	/**
+	 * Asks the server to cancel jobs of an abandoned call if handle is configured so
+	 * @param handle cancelled call handle
+	 */
+	private void cancelJobsOnServer(CallHandle handle)
+	{
+		String cancelRemoteMethodName = handle.getCancelRemoteMethodName();
+
+		if (cancelRemoteMethodName == null)
+			return;
+
+		// cancellation requests get their own short deadline since the call's one is already gone
+		CallHandle previous = enterCall(CallHandle.withTimeout(DEFAULT_CONNECT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+				.withPriority(handle.getPriority()));
+
+		try
+		{
+			for (Integer jobId : handle.getJobIds())
+			{
+				try
+				{
+					httpRequest("POST", getAppChainsUrlWithVersion(selectForJob(jobId), cancelRemoteMethodName),
+							toJson(Collections.singletonMap("IdJob", jobId)));
+				}
+				catch (RuntimeException e) {}
+			}
+		}
+		finally
+		{
+			exitCall(previous);
+		}
+	}
+
+	/**
+	 * Releases runtime bookkeeping of jobs the call leaves unfinished,
+	 * whether it returned, failed or was abandoned
+	 * @param handle call handle
+	 */
+	private void releaseJobs(CallHandle handle)
+	{
+		for (Integer jobId : handle.getJobIds())
+		{
+			runtime.endpointPool.unbindJob(jobId);
+			runtime.onJobFinished(jobId);
+			handle.removeJob(jobId);
+		}
+	}
+
+	/**
+	 * Picks endpoint that accepted the job, waiting while it cools down
+	 * since no other endpoint knows the job
+	 * @param jobId job identifier
+	 * @return endpoint
+	 */
+	private AppChainsEndpoint selectForJob(Integer jobId)
+	{
+		try
+		{
+			return runtime.endpointPool.selectForJob(jobId, runtime.currentCall.get());
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new CancellationException("Appchains call was interrupted");
+		}
+	}
+
+	/**
+	 * @return priority of the call running on current thread
+	 */
+	private RequestPriority currentPriority()
+	{
+		CallHandle handle = runtime.currentCall.get();
+		return handle == null ? RequestPriority.NORMAL : handle.getPriority();
+	}
+
+	private static String join(Collection<?> items, String separator)
+	{
+		StringBuilder result = new StringBuilder();
+
+		for (Object item : items)
+		{
+			if (result.length() > 0)
+				result.append(separator);
+			result.append(item);
+		}
+
+		return result.toString();
+	}
+
+	private static void closeQuietly(Closeable closeable)
+	{
+		try
+		{
+			closeable.close();
+		}
+		catch (IOException e) {}
+	}
+
+	/**
+	 * Builds batch request body that serializes chains one by one while being sent
+	 * @param appChainsParams chain identifier / datasource identifier pairs
+	 * @return streamed request body
+	 */
+	private JsonRequestBody buildBatchReportRequestBody(final Iterable<Entry<String, String>> appChainsParams) {
+		return new JsonRequestBody()
+		{
+			void writeTo(JsonWriter writer) throws IOException
+			{
+				writer.beginObject().name("Pars").beginArray();
+				for (Entry<String, String> appParameter : appChainsParams) {
+					Map<String, Object> chain = buildReportRequestBody(appParameter.getKey(), appParameter.getValue());
+					runtime.gson.toJson(chain, chain.getClass(), writer);
+				}
+				writer.endArray().endObject();
+			}
+		};
+	}
+
+	/**
+	 * Wraps iterator so that it can be consumed by a streamed request body
+	 */
+	private static Iterable<Entry<String, String>> oneShot(final Iterator<Entry<String, String>> iterator)
+	{
+		return new Iterable<Entry<String, String>>()
+		{
+			public Iterator<Entry<String, String>> iterator()
+			{
+				return iterator;
+			}
+		};
+	}
+
+	/**
+	 * Returns sequencing beacon
+	 * @return
+	 */
+	public String getSequencingBeacon(int chrom, int pos, String allele)
+	{
+		return getBeacon("SequencingBeacon", getBeaconParameters(chrom, pos, allele));
+	}
+
+	/**
+	 * Returns public beacon
+	 * @return
+	 */
+	public String getPublicBeacon(int chrom, int pos, String allele)
+	{
+		return getBeacon("PublicBeacons", getBeaconParameters(chrom, pos, allele));
+	}
+	
+	/**
+	 * Prepares client for the first request: resolves hostnames, opens
+	 * keep-alive connection (completing TLS handshake and priming TLS
+	 * session cache) to every endpoint and exercises json serialization.
+	 * Failures are ignored, warm-up is best effort
+	 */
+	public void warmUp()
+	{
+		warmUp(1);
+	}
+
+	/**
+	 * Prepares client for the first requests, see {@link #warmUp()}
+	 * @param connectionsPerHost number of keep-alive connections to pre-open to every endpoint
+	 */
+	public void warmUp(int connectionsPerHost)
+	{
+		List<AppChainsEndpoint> endpoints = new ArrayList<AppChainsEndpoint>(runtime.endpointPool.getEndpoints());
+		endpoints.add(runtime.beaconEndpoint);
+
+		int tasks = endpoints.size() * Math.max(connectionsPerHost, 1);
+		ExecutorService executor = Executors.newFixedThreadPool(tasks);
+
+		try
+		{
+			for (final AppChainsEndpoint endpoint : endpoints)
+				for (int i = 0; i < Math.max(connectionsPerHost, 1); i++)
+					executor.execute(new Runnable()
+					{
+						public void run()
+						{
+							warmUpEndpoint(endpoint);
+						}
+					});
+
+			warmUpJson();
+		}
+		finally
+		{
+			executor.shutdown();
+			try
+			{
+				executor.awaitTermination(WARM_UP_TIMEOUT_MILLIS * 2, TimeUnit.MILLISECONDS);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Opens connection to the endpoint and leaves it in keep-alive cache
+	 * @param endpoint endpoint to connect to
+	 */
+	private void warmUpEndpoint(AppChainsEndpoint endpoint)
+	{
+		HttpURLConnection connection = null;
+		boolean released = false;
+
+		try
+		{
+			InetAddress.getAllByName(endpoint.getHostname());
+
+			connection = (HttpURLConnection) endpoint.toUrl("/").openConnection();
+			connection.setRequestMethod("HEAD");
+			connection.setConnectTimeout(WARM_UP_TIMEOUT_MILLIS);
+			connection.setReadTimeout(WARM_UP_TIMEOUT_MILLIS);
+
+			// HEAD response has no body, so connection goes back to keep-alive cache right away
+			released = connection.getResponseCode() > 0;
+		}
+		catch (Exception e) {}
+		finally
+		{
+			if (connection != null && !released)
+				connection.disconnect();
+		}
+	}
+
+	/**
+	 * Runs representative responses through json (de)serialization so that
+	 * Gson type adapters are created and hot paths are compiled
+	 */
+	private void warmUpJson()
+	{
+		String sample = "{\"Status\":{\"IdJob\":1.0,\"Status\":\"Completed\",\"CompletedSuccesfully\":true},"
+				+ "\"ResultProps\":[{\"Name\":\"result\",\"Type\":\"PlainText\",\"Value\":\"value\"}]}";
+
+		for (int i = 0; i < 100; i++)
+		{
+			Object decoded = fromJson(sample);
+			toJson(decoded);
+			toJson(buildReportRequestBody("Chain1", "1"));
+		}
+	}
+
+	/**
+	 * Enables hedging of idempotent GET requests (job polls, report files,
+	 * beacons). When response to a request doesn't arrive within the given
+	 * latency percentile of its endpoint, duplicate request is sent and the
+	 * slower one is aborted. Only for clients owning their runtime, see
+	 * {@link AppChainsRuntime#enableHedging(double, double)}
+	 * @param percentile latency percentile to hedge after (i.e. 0.95)
+	 * @param budgetRatio maximum share of requests that may be duplicated (i.e. 0.05)
+	 */
+	public void enableHedging(double percentile, double budgetRatio)
+	{
+		requireOwnRuntime().enableHedging(percentile, budgetRatio);
 	}
-	
+
 	/**
-	 * Constructor that should be called in order to work
-	 * with methods that doesn't require authentication (i.e. getBeacon)
-	 * @param chainsHostname
+	 * Disables hedging of idempotent requests
 	 */
-	public AppChains(String chainsHostname)
+	public void disableHedging()
 	{
-		this.chainsHostname = chainsHostname;
+		requireOwnRuntime().disableHedging();
 	}
-	
-	// High level public API
-	
+
 	/**
-	 * Requests report
-	 * @param remoteMethodName REST endpoint name (i.e. StartApp)
-	 * @param applicationMethodName report/application specific identifier (i.e. MelanomaDsAppv)
-	 * @param datasourceId resource with data to use for report generation
-	 * @return
+	 * Sets local cache used by file results for downloads and
+	 * memory-mapped access. Pass null to disable caching
+	 * @param fileCache report file cache
 	 */
-	public Report getReport(String remoteMethodName, String applicationMethodName, String datasourceId)
+	public void setFileCache(ReportFileCache fileCache)
 	{
-		RawReportJobResult rawReportJobResult =
-				getRawJobResult(submitReportJob(remoteMethodName, applicationMethodName, datasourceId));
-		return 	getReportImpl(rawReportJobResult);
+		requireOwnRuntime().setFileCache(fileCache);
 	}
-	
+
 	/**
-	 * Requests report
-	 * @param remoteMethodName REST endpoint name (i.e. StartApp)
-	 * @param requestBody jsonified request body to send to server
-	 * @return
+	 * Returns endpoints requests are balanced across
+	 * @return list of endpoints
 	 */
-	public Report getReport(String remoteMethodName, String requestBody)
+	public List<AppChainsEndpoint> getEndpoints()
 	{
-		RawReportJobResult rawReportJobResult =
-				getRawJobResult((Map<String, Object>) submitReportJob(remoteMethodName, requestBody));
-		return 	getReportImpl(rawReportJobResult);
+		return runtime.endpointPool.getEndpoints();
 	}
 
-	public Map<String, Report> getReportBatch(String remoteMethodName, Map<String, String> appChainsParams)
+	/**
+	 * Starts periodic background health checks of the endpoints.
+	 * Failing endpoints are taken out of rotation until they recover
+	 * @param interval interval between checks
+	 * @param unit interval time unit
+	 */
+	public void startHealthChecks(long interval, TimeUnit unit)
 	{
-		Map<String, Object> requestBody = buildBatchReportRequestBody(appChainsParams);
-		List<Map<String, Object>> batchJobData  =
-				(List<Map<String, Object>>) submitReportJob(remoteMethodName, toJson(requestBody));
-
-		return getBatchReportImpl(batchJobData);
-		}
-
-	private Map<String, Report> getBatchReportImpl(List<Map<String, Object>> batchJobData) {
-		Map<String, RawReportJobResult> jobs = getBatchRawReportImpl(batchJobData);
-
-		Map<String, Report> result = new HashMap<String, Report>(jobs.size());
-
-		for (Map.Entry<String, RawReportJobResult> job : jobs.entrySet()) {
-			result.put(job.getKey(), processCompletedJob(job.getValue()));
-		}
-		return result;
+		requireOwnRuntime().startHealthChecks(interval, unit);
 	}
 
-	private Map<String, Object> buildBatchReportRequestBody(Map<String, String> appChainsParams) {
-		List<Map<String, Object>> paramsList = new ArrayList<Map<String, Object>>(appChainsParams.size());
-		for (Entry<String, String> appParameter : appChainsParams.entrySet()) {
-			paramsList.add(buildReportRequestBody(appParameter.getKey(), appParameter.getValue()));
-		}
-		Map<String, Object> requestBody = new HashMap<String, Object>(1);
-		requestBody.put("Pars", paramsList);
-		return requestBody;
+	/**
+	 * Stops periodic background health checks
+	 */
+	public void stopHealthChecks()
+	{
+		requireOwnRuntime().stopHealthChecks();
 	}
 
 	/**
-	 * Returns sequencing beacon
-	 * @return
+	 * Exposes client's runtime over JMX, see {@link AppChainsRuntimeMXBean}
+	 * @return name the bean is registered under
 	 */
-	public String getSequencingBeacon(int chrom, int pos, String allele)
+	public ObjectName registerMBean()
 	{
-		return getBeacon("SequencingBeacon", getBeaconParameters(chrom, pos, allele));
+		return requireOwnRuntime().registerMBean();
 	}
 
 	/**
-	 * Returns public beacon
-	 * @return
+	 * @return runtime of a client that owns it
+	 * @throws IllegalStateException for views of a shared runtime
 	 */
-	public String getPublicBeacon(int chrom, int pos, String allele)
+	private AppChainsRuntime requireOwnRuntime()
 	{
-		return getBeacon("PublicBeacons", getBeaconParameters(chrom, pos, allele));
+		if (view)
+			throw new IllegalStateException("Client shares its runtime, configure it with AppChainsRuntime");
+
+		return runtime;
 	}
-	
+
 	// Low level public API
 	
 	/**
@@ -164,7 +1139,16 @@ public class AppChains
 	 */
 	public Map<String, Object> getRawReport(String remoteMethodName, String applicationMethodName, String datasourceId)
 	{
-		return getRawReportImpl("POST", remoteMethodName, toJson(buildReportRequestBody(applicationMethodName, datasourceId))).getSource();
+		CallHandle implicit = enterImplicitCall();
+
+		try
+		{
+			return getRawReportImpl("POST", remoteMethodName, toJson(buildReportRequestBody(applicationMethodName, datasourceId))).getSource();
+		}
+		finally
+		{
+			exitImplicitCall(implicit);
+		}
 	}
 	
 	/**
@@ -176,7 +1160,16 @@ public class AppChains
 	 */
 	public Map<String, Object> getRawReport(String remoteMethodName, String requestBody)
 	{
-		return getRawReportImpl("POST", remoteMethodName, requestBody).getSource();
+		CallHandle implicit = enterImplicitCall();
+
+		try
+		{
+			return getRawReportImpl("POST", remoteMethodName, requestBody).getSource();
+		}
+		finally
+		{
+			exitImplicitCall(implicit);
+		}
 	}
 	
 	/**
@@ -198,7 +1191,13 @@ public class AppChains
 	 */
 	public String getBeacon(String methodName, String queryString)
 	{
+		ClientEvents.Span span = ClientEvents.INSTANCE.beacon().appCode(methodName);
 		HttpResponse response = httpRequest("GET", getBeaconUrl(methodName, queryString), "");
+
+		span.endpoint(runtime.beaconEndpoint.toString())
+				.status(String.valueOf(response.getResponseCode()))
+				.bytes(response.getResponseData().length())
+				.commit();
 		return response.getResponseData();
 	}
 
@@ -233,6 +1232,33 @@ public class AppChains
 		return data;
 	}
 
+	/**
+	 * Builds request body of a cohort request, additional parameters follow the datasource
+	 * @param request report request
+	 * @return request body
+	 */
+	@SuppressWarnings("unchecked")
+	private Map<String, Object> buildReportRequestBody(ReportRequest request)
+	{
+		Map<String, Object> data = buildReportRequestBody(request.getChainId(), request.getDatasourceId());
+
+		if (request.getParameters().isEmpty())
+			return data;
+
+		List<Map<String, String>> parameters = new ArrayList<Map<String, String>>((List<Map<String, String>>) data.get("Pars"));
+
+		for (Entry<String, String> parameter : request.getParameters().entrySet())
+		{
+			Map<String, String> item = new HashMap<String, String>(2);
+			item.put("Name", parameter.getKey());
+			item.put("Value", parameter.getValue());
+			parameters.add(item);
+		}
+
+		data.put("Pars", parameters);
+		return data;
+	}
+
 	/**
 	 * Deserializes json
 	 * @param data string with json data
@@ -240,7 +1266,10 @@ public class AppChains
 	 */
 	protected Object fromJson(String data)
 	{
-		return new GsonBuilder().create().fromJson(data, new TypeToken<Object>(){}.getType());
+		ClientEvents.Span span = ClientEvents.INSTANCE.parseJson().bytes(data == null ? 0 : data.length());
+		Object result = runtime.gson.fromJson(data, JSON_OBJECT_TYPE);
+		span.commit();
+		return result;
 	}
 	
 	/**
@@ -250,7 +1279,7 @@ public class AppChains
 	 */
 	protected String toJson(Object data)
 	{
-		return new GsonBuilder().create().toJson(data);
+		return runtime.gson.toJson(data);
 	}
 
 	/**
@@ -265,7 +1294,13 @@ public class AppChains
 		try
 		{
 			s = new Scanner(stream).useDelimiter("\\A");
-			return s.hasNext() ? s.next() : "";
+			String response = s.hasNext() ? s.next() : "";
+
+			// scanner swallows read errors, i.e. of connections disconnected by the deadline
+			if (s.ioException() != null)
+				throw new RuntimeException(s.ioException().getMessage(), s.ioException());
+
+			return response;
 		}
 		finally
 		{
@@ -316,6 +1351,11 @@ public class AppChains
 	 */
 	protected RawReportJobResult getRawReportImpl(RawReportJobResult rawResult)
 	{
+		SharedJobPoller poller = runtime.getPoller();
+
+		if (poller != null && !rawResult.isCompleted())
+			return awaitJob(poller, poller.register(this, rawResult.getJobId(), currentPriority()), rawResult.getJobId());
+
 		while (true)
 		{
 			try
@@ -325,10 +1365,14 @@ public class AppChains
 					return rawResult;
 				}
 				
-				TimeUnit.SECONDS.sleep(DEFAULT_REPORT_RETRY_TIMEOUT);
+				waitBeforePoll();
 
 				rawResult = getRawJobResult(rawResult.getJobId());
 			}
+			catch (CancellationException e)
+			{
+				throw e;
+			}
 			catch (Exception e)
 			{
 				throw new RuntimeException(String.format(
@@ -338,46 +1382,219 @@ public class AppChains
 	}
 
 	/**
-	 * Retrieves raw report data from the API server
+	 * Retrieves raw report data letting shared runtime poller track pending jobs
+	 * @param poller shared poller
 	 * @param batchJobData
+	 * @param result map completed jobs are put to
 	 * @return report
 	 */
-	protected Map<String, RawReportJobResult> getBatchRawReportImpl(List<Map<String, Object>> batchJobData)
+	@SuppressWarnings("unchecked")
+	private <T extends Map<String, RawReportJobResult>> T getBatchRawReportImpl(SharedJobPoller poller,
+			List<Map<String, Object>> batchJobData, T result)
 	{
-		Map<String, RawReportJobResult> result = new HashMap<String, RawReportJobResult>(batchJobData.size());
-		Map<Integer, String> jobIdsPending = new HashMap<Integer, String>(batchJobData.size());
+		Map<String, Integer> pendingJobIds = new LinkedHashMap<String, Integer>();
+		Map<String, Future<RawReportJobResult>> pending = new LinkedHashMap<String, Future<RawReportJobResult>>();
+		RequestPriority priority = currentPriority();
 
-		while (true)
+		for (Map<String, Object> batchJobDataItem : batchJobData)
 		{
-			try
+			RawReportJobResult job = getRawJobResult((Map<String, Object>) batchJobDataItem.get("Value"));
+			String chainId = (String) batchJobDataItem.get("Key");
+
+			if (job.isCompleted())
 			{
-				for(Map<String, Object> batchJobDataItem : batchJobData) {
-					RawReportJobResult job = getRawJobResult((Map<String, Object>) batchJobDataItem.get("Value"));
-					String chainId = (String) batchJobDataItem.get("Key");
-					if (job.isCompleted()) {
-						result.put(chainId, job);
-					} else {
-						jobIdsPending.put(job.getJobId(), chainId);
-					}
-				}
+				result.put(chainId, job);
+			}
+			else
+			{
+				pendingJobIds.put(chainId, job.getJobId());
+				pending.put(chainId, poller.register(this, job.getJobId(), priority));
+			}
+		}
 
-				if(jobIdsPending.size() > 0){
-					batchJobData = getBatchJobResponse(jobIdsPending);
-					jobIdsPending.clear();
-				} else {
+		try
+		{
+			Iterator<Map.Entry<String, Future<RawReportJobResult>>> jobs = pending.entrySet().iterator();
+
+			while (jobs.hasNext())
+			{
+				Map.Entry<String, Future<RawReportJobResult>> job = jobs.next();
+				result.put(job.getKey(), awaitJob(poller, job.getValue(), pendingJobIds.get(job.getKey())));
+
+				// completed futures hold results, so consumed ones are dropped to let spilling maps bound the heap
+				jobs.remove();
+				pendingJobIds.remove(job.getKey());
+			}
+		}
+		finally
+		{
+			// jobs left after a failure or cancellation are no longer of interest
+			for (Integer jobId : pendingJobIds.values())
+				poller.unregister(this, jobId);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Waits for job tracked by shared poller watching current call's cancellation
+	 * @param poller shared poller
+	 * @param future job result future
+	 * @param jobId job identifier
+	 * @return completed job
+	 */
+	private RawReportJobResult awaitJob(SharedJobPoller poller, Future<RawReportJobResult> future, Integer jobId)
+	{
+		CallHandle handle = runtime.currentCall.get();
+		boolean completed = false;
+
+		try
+		{
+			while (true)
+			{
+				if (handle != null)
+					handle.checkActive();
+
+				try
+				{
+					RawReportJobResult result = future.get(handle == null ? runtime.getPollIntervalMillis()
+							: Math.min(HEDGE_CANCELLATION_CHECK_MILLIS, handle.getRemainingMillis() + 1), TimeUnit.MILLISECONDS);
+					completed = true;
+
+					// the poller parsed the result under its own handle
+					if (handle != null)
+						handle.removeJob(jobId);
 					return result;
 				}
+				catch (TimeoutException e) {}
+			}
+		}
+		catch (ExecutionException e)
+		{
+			completed = true;
+			throw new RuntimeException(String.format("Error processing job: %s", jobId), e.getCause());
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(String.format("Interrupted while waiting for job: %s", jobId), e);
+		}
+		finally
+		{
+			if (!completed)
+				poller.unregister(this, jobId);
+		}
+	}
+
+	/**
+	 * Polls status of several jobs with a single request
+	 * @param jobIds job identifiers
+	 * @param priority priority of the most urgent polled job
+	 * @return raw job results
+	 */
+	@SuppressWarnings("unchecked")
+	List<RawReportJobResult> pollJobs(Collection<Integer> jobIds, RequestPriority priority)
+	{
+		Map<Integer, String> request = new LinkedHashMap<Integer, String>(jobIds.size());
+		for (Integer jobId : jobIds)
+			request.put(jobId, null);
+
+		CallHandle previous = enterCall(new CallHandle().withPriority(priority));
+
+		try
+		{
+			List<RawReportJobResult> result = new ArrayList<RawReportJobResult>(jobIds.size());
+			for (Map<String, Object> job : getBatchJobResponse(request))
+				result.add(getRawJobResult((Map<String, Object>) job.get("Value")));
+
+			return result;
+		}
+		finally
+		{
+			exitCall(previous);
+		}
+	}
+
+	/**
+	 * Waits before next job status poll, returns early if current call is cancelled
+	 * @throws InterruptedException
+	 */
+	protected void waitBeforePoll() throws InterruptedException
+	{
+		CallHandle handle = runtime.currentCall.get();
+
+		if (handle == null)
+			TimeUnit.MILLISECONDS.sleep(runtime.getPollIntervalMillis());
+		else
+			handle.await(runtime.getPollIntervalMillis());
+	}
 
+	/**
+	 * Retrieves raw report data from the API server
+	 * @param batchJobData
+	 * @return report
+	 */
+	protected Map<String, RawReportJobResult> getBatchRawReportImpl(List<Map<String, Object>> batchJobData)
+	{
+		return getBatchRawReportImpl(batchJobData, new HashMap<String, RawReportJobResult>(batchJobData.size()));
+	}
+
+	/**
+	 * Retrieves raw report data from the API server
+	 * @param batchJobData
+	 * @param result map completed jobs are put to
+	 * @return report
+	 */
+	protected <T extends Map<String, RawReportJobResult>> T getBatchRawReportImpl(List<Map<String, Object>> batchJobData,
+			T result)
+	{
+		SharedJobPoller poller = runtime.getPoller();
+
+		if (poller != null)
+			return getBatchRawReportImpl(poller, batchJobData, result);
 
-				TimeUnit.SECONDS.sleep(DEFAULT_REPORT_RETRY_TIMEOUT);
+		Map<Integer, String> jobIdsPending = new HashMap<Integer, String>(batchJobData.size());
+
+		try
+		{
+			for(Map<String, Object> batchJobDataItem : batchJobData) {
+				RawReportJobResult job = getRawJobResult((Map<String, Object>) batchJobDataItem.get("Value"));
+				String chainId = (String) batchJobDataItem.get("Key");
+				if (job.isCompleted()) {
+					result.put(chainId, job);
+				} else {
+					jobIdsPending.put(job.getJobId(), chainId);
+				}
 			}
-			catch (Exception e)
+
+			while (!jobIdsPending.isEmpty())
 			{
-				throw new RuntimeException(
-						String.format("Error processing jobs: %s",
-								StringUtils.join(jobIdsPending.keySet(), " ")),
-						e);
+				// completed jobs of a chunk go to the result before the next chunk is polled,
+				// so a spilling result never has more than one chunk of responses in heap
+				for (Entry<AppChainsEndpoint, Map<Integer, String>> chunk : getPollChunks(jobIdsPending)) {
+					for (Map<String, Object> batchJobDataItem : getBatchJobResponseChunk(chunk.getKey(), chunk.getValue())) {
+						RawReportJobResult job = getRawJobResult((Map<String, Object>) batchJobDataItem.get("Value"));
+						if (job.isCompleted())
+							result.put(jobIdsPending.remove(job.getJobId()), job);
+					}
+				}
+
+				if (!jobIdsPending.isEmpty())
+					waitBeforePoll();
 			}
+
+			return result;
+		}
+		catch (CancellationException e)
+		{
+			throw e;
+		}
+		catch (Exception e)
+		{
+			throw new RuntimeException(
+					String.format("Error processing jobs: %s",
+							join(jobIdsPending.keySet(), " ")),
+					e);
 		}
 	}
 
@@ -388,6 +1605,9 @@ public class AppChains
 	 */
 	protected Report processCompletedJob(RawReportJobResult rawResult)
 	{
+		ClientEvents.Span span = ClientEvents.INSTANCE.processJob()
+				.jobId(rawResult.getJobId())
+				.status(rawResult.getStatus());
 		List<Result> results = new ArrayList<Result>(rawResult.getResultProps().size());
 		
 		for (Map<String, Object> resultProp : rawResult.getResultProps())
@@ -400,7 +1620,7 @@ public class AppChains
 				continue;*/
 
 			String resultPropType = type.toString().toLowerCase(),
-				   resultPropValue = (String) value,
+				   resultPropValue = value instanceof Number ? formatNumber((Number) value) : (value == null ? null : value.toString()),
 				   resultPropName = (String) name;
 
 
@@ -409,11 +1629,22 @@ public class AppChains
 			{
 					results.add(new Result(resultPropName, new TextResultValue(resultPropValue)));
 			}
+			else if (value instanceof Number || (resultPropValue != null && isNumeric(resultPropValue)))
+			{
+					// non-text props (i.e. pdf) refer to report files by identifier
+					int fileId = value instanceof Number ? ((Number) value).intValue() : Integer.parseInt(resultPropValue);
+					String fileName = String.format("report_%d_%s.%s", rawResult.getJobId(), resultPropName, resultPropType);
+					// files are stored on the host that ran the job
+					URL reportFileUrl = getReportFileUrl(rawResult.getEndpoint(), fileId);
+					results.add(new Result(resultPropName, new FileResultValue(fileName, resultPropType, reportFileUrl)));
+			}
 		}
 		
 		Report finalResult = new Report();
 		finalResult.setSucceeded(rawResult.isSucceeded());
 		finalResult.setResults(results);
+
+		span.count(results.size()).commit();
 		
 		return finalResult;
 	}
@@ -425,10 +1656,18 @@ public class AppChains
 	 */
 	protected RawReportJobResult getRawJobResult(int jobId)
 	{
-		HttpResponse httpResponse = httpRequest("GET", getJobResultsUrl(jobId), null);
+		ClientEvents.Span span = ClientEvents.INSTANCE.pollJob().jobId(jobId);
+		URL url = getJobResultsUrl(jobId);
+		HttpResponse httpResponse = httpGet(url, true);
 		Map<String, Object> decodedResponse = (Map<String, Object>) fromJson(httpResponse.responseData);
+		RawReportJobResult result = getRawJobResult(decodedResponse);
 
-		return getRawJobResult(decodedResponse);
+		span.endpoint(url.getAuthority())
+				.status(result.getStatus())
+				.bytes(httpResponse.getResponseData().length())
+				.commit();
+
+		return result;
 	}
 
 	/**
@@ -437,9 +1676,83 @@ public class AppChains
 	 * @return raw job results
 	 */
 	private List<Map<String, Object>> getBatchJobResponse(Map<Integer, String> jobIdsPending) {
-		Map<String, Set<Integer>> request = new HashMap<String, Set<Integer>>(jobIdsPending.size());
-		request.put("JobIds", jobIdsPending.keySet());
-		HttpResponse httpResponse = httpRequest("POST", getJobSubmissionUrl("GetAppResultsBatch"), toJson(request));
+		List<Entry<AppChainsEndpoint, Map<Integer, String>>> chunks = getPollChunks(jobIdsPending);
+
+		if (chunks.size() == 1)
+			return getBatchJobResponseChunk(chunks.get(0).getKey(), chunks.get(0).getValue());
+
+		// every chunk is admitted separately, letting higher priority calls run between chunks
+		List<Map<String, Object>> result = new ArrayList<Map<String, Object>>(jobIdsPending.size());
+
+		for (Entry<AppChainsEndpoint, Map<Integer, String>> chunk : chunks)
+			result.addAll(getBatchJobResponseChunk(chunk.getKey(), chunk.getValue()));
+
+		return result;
+	}
+
+	/**
+	 * Splits pending jobs into chunks polled with a single request each
+	 * @param jobIdsPending job id
+	 * @return copies of pending jobs grouped by the endpoint they are bound to
+	 */
+	private List<Entry<AppChainsEndpoint, Map<Integer, String>>> getPollChunks(Map<Integer, String> jobIdsPending) {
+		int chunkSize = runtime.getBatchPollSize();
+		// jobs of different batch submissions may be bound to different endpoints
+		Map<AppChainsEndpoint, Map<Integer, String>> jobsByEndpoint = new LinkedHashMap<AppChainsEndpoint, Map<Integer, String>>();
+
+		for (Entry<Integer, String> job : jobIdsPending.entrySet()) {
+			AppChainsEndpoint endpoint = selectForJob(job.getKey());
+			Map<Integer, String> jobs = jobsByEndpoint.get(endpoint);
+			if (jobs == null) {
+				jobs = new LinkedHashMap<Integer, String>();
+				jobsByEndpoint.put(endpoint, jobs);
+			}
+			jobs.put(job.getKey(), job.getValue());
+		}
+
+		List<Entry<AppChainsEndpoint, Map<Integer, String>>> chunks = new ArrayList<Entry<AppChainsEndpoint, Map<Integer, String>>>();
+
+		for (Entry<AppChainsEndpoint, Map<Integer, String>> endpointJobs : jobsByEndpoint.entrySet()) {
+			Map<Integer, String> chunk = null;
+
+			for (Entry<Integer, String> job : endpointJobs.getValue().entrySet()) {
+				if (chunk == null || chunk.size() == chunkSize) {
+					chunk = new LinkedHashMap<Integer, String>(Math.min(chunkSize, endpointJobs.getValue().size()));
+					chunks.add(new AbstractMap.SimpleImmutableEntry<AppChainsEndpoint, Map<Integer, String>>(
+							endpointJobs.getKey(), chunk));
+				}
+				chunk.put(job.getKey(), job.getValue());
+			}
+		}
+
+		return chunks;
+	}
+
+	/**
+	 * Retrieves raw job results data with a single request
+	 * @param endpoint endpoint the jobs are bound to
+	 * @param jobIdsPending job id
+	 * @return raw job results
+	 */
+	private List<Map<String, Object>> getBatchJobResponseChunk(AppChainsEndpoint endpoint,
+			final Map<Integer, String> jobIdsPending) {
+		JsonRequestBody request = new JsonRequestBody()
+		{
+			void writeTo(JsonWriter writer) throws IOException
+			{
+				writer.beginObject().name("JobIds").beginArray();
+				for (Integer jobId : jobIdsPending.keySet())
+					writer.value(jobId);
+				writer.endArray().endObject();
+			}
+		};
+		ClientEvents.Span span = ClientEvents.INSTANCE.pollBatch().count(jobIdsPending.size());
+		HttpResponse httpResponse = httpRequestWithFailover("POST", getAppChainsUrlWithVersion(endpoint, "GetAppResultsBatch"),
+				request, true);
+		span.endpoint(endpoint.toString())
+				.status(String.valueOf(httpResponse.getResponseCode()))
+				.bytes(httpResponse.getResponseData().length())
+				.commit();
 		List<Map<String, Object>> decodedResponse = (List<Map<String, Object>>) fromJson(httpResponse.responseData);
 		List<Map<String, Object>> result = new ArrayList<Map<String, Object>>(jobIdsPending.size());
 		for(Map<String, Object> job : decodedResponse){
@@ -452,12 +1765,40 @@ public class AppChains
 	}
 
 	/**
-	 * Retrieves raw job results data
+	 * Retrieves raw job results data and updates bookkeeping of the job
+	 * (endpoint binding, tracked statuses, call handle) once it completes
 	 * @param decodedResponse decoded response
 	 * @return raw job results
 	 */
-	@SuppressWarnings("unchecked")
 	protected RawReportJobResult getRawJobResult(Map<String, Object> decodedResponse)
+	{
+		RawReportJobResult result = parseRawJobResult(decodedResponse);
+		int jobId = result.getJobId();
+
+		if (result.isCompleted())
+		{
+			result.setEndpoint(runtime.endpointPool.unbindJob(jobId));
+			runtime.onJobFinished(jobId);
+
+			CallHandle handle = runtime.currentCall.get();
+			if (handle != null)
+				handle.removeJob(jobId);
+		}
+		else
+		{
+			runtime.onJobStatus(jobId, result.getStatus());
+		}
+		
+		return result;
+	}
+
+	/**
+	 * Converts decoded job response to raw job results without touching job bookkeeping
+	 * @param decodedResponse decoded response
+	 * @return raw job results
+	 */
+	@SuppressWarnings("unchecked")
+	private RawReportJobResult parseRawJobResult(Map<String, Object> decodedResponse)
 	{
 		List<Map<String, Object>> resultProps = (List<Map<String, Object>>) decodedResponse.get("ResultProps");
 		Map<String, Object> status = (Map<String, Object>) decodedResponse.get("Status");
@@ -494,30 +1835,92 @@ public class AppChains
 	 * @param datasourceId resource with data to use for report generation
 	 * @return job identifier
 	 */
-	protected Map<String, Object> submitReportJob(String remoteMethodName, String applicationMethodName, String datasourceId)
+	protected Map<String, Object> submitReportJob(String remoteMethodName, String applicationMethodName, String datasourceId)
+	{
+		return  (Map<String, Object>) submitReportJobImpl(remoteMethodName,
+				JsonRequestBody.of(toJson(buildReportRequestBody(applicationMethodName, datasourceId))), applicationMethodName);
+	}
+
+	/**
+	 * Submits job to the API server
+	 * @param remoteMethodName REST endpoint name (i.e. StartApp)
+	 * @param requestBody jsonified request body to send to server
+	 * @return
+	 */
+	protected Object submitReportJob(String remoteMethodName, String requestBody)
 	{
-		return  (Map<String, Object>) submitReportJob(remoteMethodName, toJson(buildReportRequestBody(applicationMethodName, datasourceId)));
+		return submitReportJobImpl(remoteMethodName, JsonRequestBody.of(requestBody), null);
 	}
 
 	/**
 	 * Submits job to the API server
 	 * @param remoteMethodName REST endpoint name (i.e. StartApp)
-	 * @param requestBody jsonified request body to send to server
+	 * @param requestBody request body to send to server
+	 * @param appCode report/application identifier(s) for profiling events
 	 * @return
 	 */
-	protected Object submitReportJob(String remoteMethodName, String requestBody)
+	private Object submitReportJobImpl(String remoteMethodName, JsonRequestBody requestBody, String appCode)
 	{
-		HttpResponse httpResponse = httpRequest("POST", getJobSubmissionUrl(remoteMethodName), requestBody);
+		ClientEvents.Span span = ClientEvents.INSTANCE.submitJob().appCode(appCode);
+		HttpResponse httpResponse = postJson(getJobSubmissionUrl(remoteMethodName), requestBody);
+		span.bytes(requestBody.getLength());
 		
 		if (httpResponse.getResponseCode() != 200)
 			throw new RuntimeException(String.format("Appchains returned error HTTP code %d with message %s",
 					httpResponse.getResponseCode(), httpResponse.getResponseData()));
 		
 		Object parsedResponse = fromJson(httpResponse.getResponseData());
+		List<Integer> jobIds = bindSubmittedJobs(parsedResponse, httpResponse.getEndpoint());
+
+		span.jobId(jobIds.isEmpty() ? null : jobIds.get(0))
+				.count(jobIds.size())
+				.endpoint(httpResponse.getEndpoint() == null ? null : httpResponse.getEndpoint().toString())
+				.status(String.valueOf(httpResponse.getResponseCode()))
+				.commit();
 		
 		return parsedResponse;
 	}
 
+	/**
+	 * Remembers endpoint that accepted submitted jobs so that
+	 * subsequent polls are sent to the same host
+	 * @param parsedResponse decoded job submission response (single job or batch)
+	 * @param endpoint endpoint that served the submission
+	 * @return identifiers of submitted jobs
+	 */
+	@SuppressWarnings("unchecked")
+	private List<Integer> bindSubmittedJobs(Object parsedResponse, AppChainsEndpoint endpoint)
+	{
+		CallHandle handle = runtime.currentCall.get();
+		List<Map<String, Object>> jobs = new ArrayList<Map<String, Object>>();
+		List<Integer> jobIds = new ArrayList<Integer>();
+
+		if (parsedResponse instanceof Map)
+			jobs.add((Map<String, Object>) parsedResponse);
+		else if (parsedResponse instanceof List)
+			for (Map<String, Object> batchJobDataItem : (List<Map<String, Object>>) parsedResponse)
+				jobs.add((Map<String, Object>) batchJobDataItem.get("Value"));
+
+		for (Map<String, Object> job : jobs)
+		{
+			Object status = job == null ? null : job.get("Status");
+			Object idJob = status instanceof Map ? ((Map<String, Object>) status).get("IdJob") : null;
+
+			if (idJob == null)
+				continue;
+
+			int jobId = Float.valueOf(idJob.toString()).intValue();
+			jobIds.add(jobId);
+
+			if (endpoint != null)
+				runtime.endpointPool.bindJob(jobId, endpoint);
+			if (handle != null)
+				handle.addJob(jobId);
+		}
+
+		return jobIds;
+	}
+
 	
 	/**
 	 * Constructs URL for getting report file
@@ -526,7 +1929,19 @@ public class AppChains
 	 */
 	protected URL getReportFileUrl(Integer fileId)
 	{
-		return getBaseAppChainsUrl(String.format("/%s/GetReportFile?idJob=%d", PROTOCOL_VERSION, fileId));
+		return getReportFileUrl(null, fileId);
+	}
+
+	/**
+	 * Constructs URL for getting report file
+	 * @param endpoint endpoint that ran the job, null if unknown
+	 * @param fileId file identifier
+	 * @return URL
+	 */
+	protected URL getReportFileUrl(AppChainsEndpoint endpoint, Integer fileId)
+	{
+		return getBaseAppChainsUrl(endpoint == null ? runtime.endpointPool.select() : endpoint,
+				String.format("/%s/GetReportFile?idJob=%d", PROTOCOL_VERSION, fileId));
 	}
 
 	/**
@@ -536,25 +1951,40 @@ public class AppChains
 	 */
 	protected URL getJobResultsUrl(Integer jobId)
 	{
-		return getBaseAppChainsUrl(String.format("/GetAppResults?idJob=%d", jobId));
+		return getBaseAppChainsUrl(selectForJob(jobId), String.format("/GetAppResults?idJob=%d", jobId));
 	}
 
 	protected URL getAppChainsUrlWithVersion (String context) {
-		return getBaseAppChainsUrl(String.format("/%s/%s", PROTOCOL_VERSION, context));
+		return getAppChainsUrlWithVersion(runtime.endpointPool.select(), context);
+	}
+
+	protected URL getAppChainsUrlWithVersion (AppChainsEndpoint endpoint, String context) {
+		return getBaseAppChainsUrl(endpoint, String.format("/%s/%s", PROTOCOL_VERSION, context));
 	}
+
 	/**
 	 * Constructs base URL for accessing sequencing backend
 	 * @param context context identifier
 	 * @return URL
 	 */
 	protected URL getBaseAppChainsUrl(String context)
+	{
+		return getBaseAppChainsUrl(runtime.endpointPool.select(), context);
+	}
+
+	/**
+	 * Constructs base URL for accessing sequencing backend
+	 * @param endpoint endpoint to send request to
+	 * @param context context identifier
+	 * @return URL
+	 */
+	protected URL getBaseAppChainsUrl(AppChainsEndpoint endpoint, String context)
 	{
 		URL remoteUrl = null;
 
 		try
 		{
-			remoteUrl = new URL(DEFAULT_APPCHAINS_SCHEMA, this.chainsHostname, DEFAULT_APPCHAINS_PORT,
-					context);
+			remoteUrl = endpoint.toUrl(context);
 		}
 		catch (Exception e)
 		{
@@ -587,9 +2017,7 @@ public class AppChains
 
 		try
 		{
-			remoteUrl = new URL(DEFAULT_APPCHAINS_SCHEMA, BEACON_HOSTNAME,
-					DEFAULT_APPCHAINS_PORT,
-					String.format("/%s/?%s", methodName, queryString));
+			remoteUrl = runtime.beaconEndpoint.toUrl(String.format("/%s/?%s", methodName, queryString));
 		}
 		catch (Exception e)
 		{
@@ -645,15 +2073,30 @@ public class AppChains
 	 * @return HttpURLConnection instance
 	 */
 	protected HttpURLConnection openHttpPostConnection(URL url, String body)
+	{
+		return openHttpPostConnection(url, body.getBytes(UTF8));
+	}
+
+	/**
+	 * Opens and returns HTTP connection object using POST method
+	 * @param url URL to send request to
+	 * @param data request body encoded as UTF-8
+	 * @return HttpURLConnection instance
+	 */
+	protected HttpURLConnection openHttpPostConnection(URL url, byte[] data)
 	{
 		HttpURLConnection connection;
 
 		try
 		{
 			connection = openBaseOauthSecuredHttpConnection("POST", url);
-			connection.setRequestProperty("Content-Length", String.valueOf(body.length()));
+			connection.setFixedLengthStreamingMode(data.length);
 			connection.setRequestProperty("Content-Type", "application/json");
-			connection.getOutputStream().write(body.getBytes());
+			connection.getOutputStream().write(data);
+		}
+		catch (CancellationException e)
+		{
+			throw e;
 		}
 		catch (Exception e)
 		{
@@ -664,83 +2107,595 @@ public class AppChains
 		return connection;
 	}
 	
+	/**
+	 * Opens HTTP connection using POST method and streams request body
+	 * onto it with chunked transfer encoding
+	 * @param url URL to send request to
+	 * @param body streamed request body
+	 * @return HttpURLConnection instance
+	 */
+	private HttpURLConnection openStreamingPostConnection(URL url, JsonRequestBody body)
+	{
+		HttpURLConnection connection;
+		OutputStream stream;
+
+		try
+		{
+			connection = openBaseOauthSecuredHttpConnection("POST", url);
+			connection.setRequestProperty("Content-Type", "application/json");
+			connection.setChunkedStreamingMode(STREAMING_CHUNK_SIZE);
+			stream = connection.getOutputStream();
+		}
+		catch (CancellationException e)
+		{
+			throw e;
+		}
+		catch (Exception e)
+		{
+			throw new RuntimeException(String.format(
+					"Unable to connect to Appchains server: %s", e.getMessage()) ,e);
+		}
+
+		final long[] written = new long[1];
+
+		try
+		{
+			JsonWriter writer = new JsonWriter(new BufferedWriter(new OutputStreamWriter(new FilterOutputStream(stream)
+			{
+				@Override
+				public void write(byte[] b, int off, int len) throws IOException
+				{
+					out.write(b, off, len);
+					written[0] += len;
+				}
+			}, UTF8), STREAMING_CHUNK_SIZE));
+
+			body.writeTo(writer);
+			writer.close();
+			body.setLength(written[0]);
+		}
+		catch (Exception e)
+		{
+			connection.disconnect();
+			// part of the body may have reached the server, so the request can't be resent
+			throw new EndpointFailure(String.format(
+					"Unable to send request to Appchains server: %s", e.getMessage()), e, false);
+		}
+
+		return connection;
+	}
+
 	/**
 	 * Opens and returns HTTP connection object using GET method
 	 * @param url URL to send request to
-	 * @return HttpURLConnection instance
+	 * @return HttpURLConnection instance
+	 */
+	protected HttpURLConnection openHttpGetConnection(URL url)
+	{
+		HttpURLConnection connection;
+
+		try
+		{
+			connection = openBaseOauthSecuredHttpConnection("GET", url);
+		}
+		catch (CancellationException e)
+		{
+			throw e;
+		}
+		catch (Exception e)
+		{
+			throw new RuntimeException(String.format(
+					"Unable to connect to Appchains server: %s", e.getMessage()) ,e);
+		}
+		
+		return connection;
+	}
+	
+	/**
+	 * Opens and returns HTTP connection object
+	 * @param method HTTP method to use
+	 * @param url URL to send request to
+	 * @return HttpURLConnection instance
+	 * @throws IOException
+	 */
+	protected HttpURLConnection openBaseOauthSecuredHttpConnection(String method, URL url) throws IOException
+	{
+		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		connection.setRequestMethod(method);
+		connection.setDoOutput(true);
+		connection.setDoInput(true);
+		connection.setRequestProperty("Authorization", String.format("Bearer %s", token.get()));
+
+		CallHandle handle = runtime.currentCall.get();
+
+		if (handle == null)
+		{
+			connection.setConnectTimeout(DEFAULT_CONNECT_TIMEOUT_MILLIS);
+			connection.setReadTimeout(DEFAULT_READ_TIMEOUT_MILLIS);
+		}
+		else
+		{
+			handle.checkActive();
+			connection.setConnectTimeout(handle.clampTimeout(DEFAULT_CONNECT_TIMEOUT_MILLIS));
+			connection.setReadTimeout(handle.clampTimeout(DEFAULT_READ_TIMEOUT_MILLIS));
+			handle.attach(connection);
+		}
+		
+		return connection;
+	}
+	
+	/**
+	 * Executes HTTP request of the specified type. Requests to AppChains
+	 * endpoints fail over to another endpoint when the chosen one is unreachable;
+	 * GET requests also fail over when response can't be read
+	 * @param method HTTP method (GET/POST)
+	 * @param url URL to send request to
+	 * @param body request body (applicable for POST)
+	 * @return
+	 */
+	protected HttpResponse httpRequest(String method, URL url, String body)
+	{
+		if (!method.equalsIgnoreCase("post") && !method.equalsIgnoreCase("get"))
+			throw new UnsupportedOperationException(String.format("HTTP method %s is not supported", method));
+
+		if (method.equalsIgnoreCase("get"))
+			return httpGet(url, false);
+
+		return httpRequestWithFailover(method, url, body == null ? null : JsonRequestBody.of(body), false);
+	}
+
+	/**
+	 * Executes GET request, hedged when hedging is enabled
+	 * @param url URL to send request to
+	 * @param pinned true if the request may only go to the endpoint of the URL, i.e. polls of a job bound to it
+	 * @return
+	 */
+	private HttpResponse httpGet(URL url, final boolean pinned)
+	{
+		RequestHedger hedger = runtime.hedger;
+
+		if (hedger == null)
+			return httpRequestWithFailover("GET", url, null, pinned);
+
+		try
+		{
+			return hedge(hedger, url, pinned, new RequestHedger.Request<HttpResponse>()
+			{
+				public HttpResponse send(URL url)
+				{
+					return httpRequestWithFailover("GET", url, null, pinned);
+				}
+
+				public void discard(HttpResponse response) {}
+			});
+		}
+		catch (IOException e)
+		{
+			// HTTP requests report I/O errors unchecked
+			throw new RuntimeException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Executes POST request, see {@link #httpRequest(String, URL, String)}
+	 * @param url URL to send request to
+	 * @param body request body
+	 * @return
+	 */
+	private HttpResponse postJson(URL url, JsonRequestBody body)
+	{
+		return httpRequestWithFailover("POST", url, body, false);
+	}
+
+	/**
+	 * Sends idempotent request; if response doesn't arrive within the path's
+	 * latency percentile a duplicate is sent to another healthy endpoint and
+	 * whichever answers first wins, the other one is aborted. Requests the
+	 * hedging pool can't take are sent on the calling thread without hedging
+	 * @param hedger hedging policy
+	 * @param url URL to send request to
+	 * @param pinned true if the duplicate should go to the same endpoint
+	 * @param request request to send
+	 * @return response of the first successful attempt
+	 * @throws IOException
+	 */
+	@SuppressWarnings("unchecked")
+	private <T> T hedge(RequestHedger hedger, URL url, boolean pinned, final RequestHedger.Request<T> request)
+			throws IOException
+	{
+		final CallHandle parent = runtime.currentCall.get();
+		CompletionService<T> completion = new ExecutorCompletionService<T>(hedger.getExecutor());
+		// response of the first successful attempt, attempts succeeding later or after the caller gave up discard theirs
+		final AtomicReference<Object> claimed = new AtomicReference<Object>();
+		Map<Future<T>, CallHandle> attempts = new HashMap<Future<T>, CallHandle>(4);
+		CallHandle winner = null;
+		long started = System.nanoTime();
+		long hedgeDelay = hedger.getHedgeDelayMillis(url.getPath());
+
+		try
+		{
+			submitHedgeAttempt(completion, attempts, url, request, claimed, parent);
+		}
+		catch (RejectedExecutionException e)
+		{
+			return request.send(url);
+		}
+
+		int outstanding = 1;
+
+		try
+		{
+			Future<T> done = hedgeDelay < 0 ? null : pollCompletion(completion, hedgeDelay, parent);
+
+			if (done == null && hedgeDelay >= 0 && hedger.tryAcquireHedge())
+			{
+				AppChainsEndpoint endpoint = pinned ? null : runtime.endpointPool.lookup(url);
+				URL hedgeUrl = endpoint == null ? url : rebaseUrl(url, runtime.endpointPool.selectAlternative(endpoint));
+
+				try
+				{
+					submitHedgeAttempt(completion, attempts, hedgeUrl, request, claimed, parent);
+					outstanding++;
+				}
+				catch (RejectedExecutionException e) {}
+			}
+
+			while (true)
+			{
+				while (done == null)
+					done = pollCompletion(completion, runtime.getPollIntervalMillis(), parent);
+				outstanding--;
+
+				try
+				{
+					T response = done.get();
+					winner = attempts.get(done);
+					hedger.recordLatency(url.getPath(), System.nanoTime() - started);
+					return response;
+				}
+				catch (ExecutionException e)
+				{
+					// the other attempt may still succeed
+					if (outstanding == 0)
+					{
+						if (e.getCause() instanceof RuntimeException)
+							throw (RuntimeException) e.getCause();
+						if (e.getCause() instanceof IOException)
+							throw (IOException) e.getCause();
+						throw new RuntimeException(e.getCause());
+					}
+					done = null;
+				}
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new CancellationException("Appchains call was interrupted");
+		}
+		finally
+		{
+			// an attempt may have succeeded right when the caller gave up
+			if (winner == null && !claimed.compareAndSet(null, HEDGE_ABANDONED))
+				request.discard((T) claimed.get());
+
+			// the winner's connection may still be in use, i.e. by a file stream
+			for (CallHandle attempt : attempts.values())
+				if (attempt != winner)
+					attempt.cancel();
+		}
+	}
+
+	private <T> void submitHedgeAttempt(CompletionService<T> completion, Map<Future<T>, CallHandle> attempts,
+			final URL url, final RequestHedger.Request<T> request, final AtomicReference<Object> claimed,
+			CallHandle parent)
+	{
+		final CallHandle attempt = parent == null || parent.getRemainingMillis() == Long.MAX_VALUE
+				? new CallHandle() : CallHandle.withTimeout(parent.getRemainingMillis(), TimeUnit.MILLISECONDS);
+		if (parent != null)
+			attempt.withPriority(parent.getPriority());
+
+		attempts.put(completion.submit(new Callable<T>()
+		{
+			public T call() throws IOException
+			{
+				CallHandle previous = enterCall(attempt);
+				try
+				{
+					T response = request.send(url);
+
+					if (!claimed.compareAndSet(null, response))
+					{
+						request.discard(response);
+						throw new CancellationException("Hedged request was answered by another attempt");
+					}
+					return response;
+				}
+				finally
+				{
+					exitCall(previous);
+				}
+			}
+		}), attempt);
+	}
+
+	/**
+	 * Waits for the next completed attempt while watching caller's cancellation
+	 */
+	private <T> Future<T> pollCompletion(CompletionService<T> completion, long timeoutMillis,
+			CallHandle parent) throws InterruptedException
+	{
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+
+		while (true)
+		{
+			if (parent != null)
+				parent.checkActive();
+
+			long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+			if (remaining <= 0)
+				return null;
+
+			Future<T> done = completion.poll(Math.min(remaining, HEDGE_CANCELLATION_CHECK_MILLIS),
+					TimeUnit.MILLISECONDS);
+			if (done != null)
+				return done;
+		}
+	}
+
+	/**
+	 * Executes request, failing over to other endpoints if needed
+	 * @param method HTTP method (GET/POST)
+	 * @param url URL to send request to
+	 * @param body request body (applicable for POST)
+	 * @param pinned true if the request may only go to the endpoint of the URL, i.e. polls of jobs bound to it
+	 * @return
+	 */
+	private HttpResponse httpRequestWithFailover(String method, URL url, JsonRequestBody body, boolean pinned)
+	{
+		AppChainsEndpoint endpoint = runtime.endpointPool.lookup(url);
+
+		if (endpoint == null)
+			return httpRequest(method, url, body, null);
+
+		Set<AppChainsEndpoint> tried = new HashSet<AppChainsEndpoint>();
+
+		while (true)
+		{
+			tried.add(endpoint);
+
+			try
+			{
+				return httpRequest(method, rebaseUrl(url, endpoint), body, endpoint);
+			}
+			catch (EndpointFailure e)
+			{
+				// aborted connections of a cancelled call look like endpoint failures
+				CallHandle handle = runtime.currentCall.get();
+				if (handle != null)
+					handle.checkActive();
+
+				AppChainsEndpoint next = runtime.endpointPool.select(tried);
+
+				// other endpoints don't know jobs bound to this one; resending a POST could duplicate the job
+				if (pinned || next == null || (!e.isConnectFailure() && !method.equalsIgnoreCase("get")))
+					throw e;
+
+				endpoint = next;
+			}
+		}
+	}
+
+	/**
+	 * Executes HTTP request against single endpoint
+	 * @param method HTTP method (GET/POST)
+	 * @param url URL to send request to
+	 * @param body request body (applicable for POST)
+	 * @param endpoint pool endpoint serving the URL or null
+	 * @return
 	 */
-	protected HttpURLConnection openHttpGetConnection(URL url)
+	private HttpResponse httpRequest(String method, URL url, JsonRequestBody body, AppChainsEndpoint endpoint)
 	{
-		HttpURLConnection connection;
+		RequestPriority priority = acquireRequestSlot();
+		ClientEvents.Span span = ClientEvents.INSTANCE.httpRequest().endpoint(url.getAuthority() + url.getPath());
+		HttpResponse response = null;
 
 		try
 		{
-			connection = openBaseOauthSecuredHttpConnection("GET", url);
+			response = executeHttpRequest(method, url, body, endpoint);
+			return response;
 		}
-		catch (Exception e)
+		finally
 		{
-			throw new RuntimeException(String.format(
-					"Unable to connect to Appchains server: %s", e.getMessage()) ,e);
+			runtime.requestGate.release(priority);
+			span.status(method.toUpperCase() + " " + (response == null ? "failed" : response.getResponseCode()))
+					.bytes(response == null ? 0 : response.getResponseData().length())
+					.commit();
 		}
-		
-		return connection;
 	}
-	
+
 	/**
-	 * Opens and returns HTTP connection object
-	 * @param method HTTP method to use
-	 * @param url URL to send request to
-	 * @return HttpURLConnection instance
-	 * @throws IOException
+	 * Waits until runtime's concurrency limits admit request of current call's priority
+	 * @return priority the slot was acquired with
 	 */
-	protected HttpURLConnection openBaseOauthSecuredHttpConnection(String method, URL url) throws IOException
+	private RequestPriority acquireRequestSlot()
 	{
-		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-		connection.setRequestMethod(method);
-		connection.setDoOutput(true);
-		connection.setDoInput(true);
-		connection.setRequestProperty("Authorization", String.format("Bearer %s", token));
-		
-		return connection;
+		RequestPriority priority = currentPriority();
+
+		try
+		{
+			runtime.requestGate.acquire(priority, runtime.currentCall.get());
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new CancellationException("Appchains call was interrupted");
+		}
+
+		return priority;
 	}
-	
-	/**
-	 * Executes HTTP request of the specified type
-	 * @param method HTTP method (GET/POST)
-	 * @param url URL to send request to
-	 * @param body request body (applicable for POST)
-	 * @return
-	 */
-	protected HttpResponse httpRequest(String method, URL url, String body)
+
+	private HttpResponse executeHttpRequest(String method, URL url, JsonRequestBody body, AppChainsEndpoint endpoint)
 	{
 		HttpURLConnection connection;
-		
-		if (method.equalsIgnoreCase("post"))
-				connection = openHttpPostConnection(url, body);
-		else if (method.equalsIgnoreCase("get"))
+
+		if (endpoint != null)
+		{
+			try
+			{
+				runtime.endpointPool.onRequestStart(endpoint, runtime.currentCall.get());
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new CancellationException("Appchains call was interrupted");
+			}
+		}
+
+		long started = System.nanoTime();
+
+		try
+		{
+			if (method.equalsIgnoreCase("post"))
+				connection = body.getData() != null
+						? openHttpPostConnection(url, body.getData()) : openStreamingPostConnection(url, body);
+			else
 				connection = openHttpGetConnection(url);
-		else
-				throw new UnsupportedOperationException(String.format("HTTP method %s is not supported", method));
+		}
+		catch (RuntimeException e)
+		{
+			if (endpoint == null)
+				throw e;
+
+			if (e instanceof CancellationException || isCurrentCallAbandoned())
+			{
+				runtime.endpointPool.onRequestAbandoned(endpoint);
+				if (!(e instanceof CancellationException))
+					runtime.currentCall.get().checkActive();
+				throw e;
+			}
+
+			runtime.endpointPool.onRequestFailure(endpoint);
+
+			if (e instanceof EndpointFailure)
+				throw e;
+			throw new EndpointFailure(e.getMessage(), e, true);
+		}
 		
 		Integer responseCode = 0;
+		boolean released = false;
 		
 		try
 		{
 			responseCode = connection.getResponseCode();
 			String response = getServerResponse(connection.getInputStream());
+			released = true;
+
+			if (endpoint != null)
+				runtime.endpointPool.onRequestSuccess(endpoint, System.nanoTime() - started);
 			
-			return new HttpResponse(responseCode, response);
+			HttpResponse httpResponse = new HttpResponse(responseCode, response);
+			httpResponse.setEndpoint(endpoint);
+			return httpResponse;
 		}
 		catch (Exception e)
 		{
-			throw new RuntimeException(String.format(
-					"Unable to read response from the Appchains server: %s", e.getMessage()), e);
+			String message = String.format(
+					"Unable to read response from the Appchains server: %s", e.getMessage());
+
+			if (responseCode > 0)
+				released = drainErrorStream(connection);
+
+			if (endpoint == null)
+				throw new RuntimeException(message, e);
+
+			// aborted by cancellation, by the deadline or by a hedged request that answered first
+			if (isCurrentCallAbandoned())
+			{
+				runtime.endpointPool.onRequestAbandoned(endpoint);
+				// reports the call as cancelled or expired rather than as an I/O error
+				runtime.currentCall.get().checkActive();
+				throw new RuntimeException(message, e);
+			}
+
+			// endpoint is healthy but overloaded
+			if (responseCode == 429)
+			{
+				runtime.endpointPool.onRequestRejected(endpoint);
+				throw new RuntimeException(message, e);
+			}
+
+			// client errors mean the request itself is wrong, not the endpoint
+			if (responseCode >= 400 && responseCode < 500)
+			{
+				runtime.endpointPool.onRequestSuccess(endpoint, System.nanoTime() - started);
+				throw new RuntimeException(message, e);
+			}
+
+			runtime.endpointPool.onRequestFailure(endpoint);
+			throw new EndpointFailure(message, e,
+					e instanceof ConnectException || e instanceof UnknownHostException);
 		}
 		finally
 		{
-			connection.disconnect();
+			CallHandle handle = runtime.currentCall.get();
+			if (handle != null)
+				handle.detach(connection);
+
+			// fully consumed connections are kept alive for reuse, broken ones are closed
+			if (!released)
+				connection.disconnect();
+		}
+	}
+
+	/**
+	 * @return true if the call running on current thread was cancelled or
+	 *         its deadline has passed, so that its I/O errors aren't endpoint failures
+	 */
+	private boolean isCurrentCallAbandoned()
+	{
+		CallHandle handle = runtime.currentCall.get();
+		return handle != null && (handle.isCancelled() || handle.isExpired());
+	}
+
+	/**
+	 * Reads and closes error stream so that underlying connection can be reused
+	 * @param connection connection with error response
+	 * @return true if connection can be returned to keep-alive cache
+	 */
+	protected boolean drainErrorStream(HttpURLConnection connection)
+	{
+		InputStream error = connection.getErrorStream();
+
+		if (error == null)
+			return false;
+
+		try
+		{
+			byte[] buffer = new byte[4096];
+			while (error.read(buffer) != -1) {}
+			error.close();
+			return true;
+		}
+		catch (IOException e)
+		{
+			return false;
 		}
 	}
+
+	/**
+	 * Points URL to another endpoint keeping path and query string
+	 * @param url source URL
+	 * @param endpoint target endpoint
+	 * @return URL
+	 */
+	private URL rebaseUrl(URL url, AppChainsEndpoint endpoint)
+	{
+		if (endpoint.matches(url))
+			return url;
+
+		return getBaseAppChainsUrl(endpoint, url.getFile());
+	}
 	
 	/**
 	 * Checks whether specified character sequence represents a number
@@ -752,6 +2707,20 @@ public class AppChains
 		return data.matches("^[0-9]+$");
 	}
 
+	/**
+	 * Formats number decoded from json as plain decimal text, i.e. 0.57 or 3
+	 * rather than 3.0, since json numbers are decoded as doubles
+	 * @param number decoded number
+	 * @return text
+	 */
+	private static String formatNumber(Number number)
+	{
+		if (!(number instanceof Double) || ((Double) number).isNaN() || ((Double) number).isInfinite())
+			return number.toString();
+
+		return BigDecimal.valueOf(number.doubleValue()).stripTrailingZeros().toPlainString();
+	}
+
 	/**
 	 * Enumerates possible result entity types
 	 */
@@ -824,19 +2793,199 @@ public class AppChains
 
 		public InputStream getStream() throws IOException
 		{
-			return openHttpGetConnection(url).getInputStream();
+			ReportFileCache cache = runtime.fileCache;
+
+			if (cache == null)
+				return openRemoteStream();
+
+			return Files.newInputStream(cache.fetch(getCacheKey(), remoteSource()));
+		}
+
+		/**
+		 * Returns file content as memory-mapped buffer, requires file cache
+		 * @return read-only buffer
+		 * @throws IOException
+		 */
+		public ByteBuffer map() throws IOException
+		{
+			ReportFileCache cache = runtime.fileCache;
+
+			if (cache == null)
+				throw new IllegalStateException("Memory-mapped access requires report file cache");
+
+			return cache.map(getCacheKey(), remoteSource());
+		}
+
+		/**
+		 * Opens file download, hedged like other GET requests when hedging is enabled
+		 */
+		private InputStream openRemoteStream() throws IOException
+		{
+			RequestHedger hedger = runtime.hedger;
+
+			if (hedger == null)
+				return openRemoteStream(url);
+
+			// only the host that ran the job has the file
+			return hedge(hedger, url, true, new RequestHedger.Request<InputStream>()
+			{
+				public InputStream send(URL url) throws IOException
+				{
+					return openRemoteStream(url);
+				}
+
+				public void discard(InputStream stream)
+				{
+					closeQuietly(stream);
+				}
+			});
+		}
+
+		/**
+		 * Opens file download, request slot is held until the stream is closed
+		 * @param url file URL on one of the endpoints
+		 */
+		private InputStream openRemoteStream(URL url) throws IOException
+		{
+			final RequestPriority priority = acquireRequestSlot();
+			final CallHandle handle = runtime.currentCall.get();
+			final HttpURLConnection connection;
+			InputStream stream;
+
+			try
+			{
+				connection = openHttpGetConnection(url);
+				stream = connection.getInputStream();
+			}
+			catch (IOException e)
+			{
+				runtime.requestGate.release(priority);
+				throw e;
+			}
+			catch (RuntimeException e)
+			{
+				runtime.requestGate.release(priority);
+				throw e;
+			}
+
+			return new FilterInputStream(stream)
+			{
+				private boolean closed;
+
+				@Override
+				public void close() throws IOException
+				{
+					if (closed)
+						return;
+
+					closed = true;
+					try
+					{
+						super.close();
+					}
+					finally
+					{
+						runtime.requestGate.release(priority);
+						// stream stays cancellable by the call it was opened in until closed
+						if (handle != null)
+							handle.detach(connection);
+					}
+				}
+			};
+		}
+
+		private ReportFileCache.StreamSource remoteSource()
+		{
+			return new ReportFileCache.StreamSource()
+			{
+				public InputStream open() throws IOException
+				{
+					return openRemoteStream();
+				}
+			};
+		}
+
+		/**
+		 * Files are identified by host, path and query and by the token they
+		 * are fetched with. The cache directory may be shared by clients of
+		 * different tenants, so a file cached for one token is never served
+		 * to another one without the server checking it; identical content
+		 * is still stored once
+		 */
+		private String getCacheKey()
+		{
+			return String.format("%s%s#%s", url.getAuthority(), url.getFile(), ReportFileCache.hash(token.get()));
 		}
 		
 		public void saveAs(String fullPathWithName) throws IOException {
 			try {
+				download(fullPathWithName);
+			} catch (Exception e) {}
+		}
 
+		/**
+		 * Downloads file to the given location, unlike saveAs reports failures
+		 * @param fullPathWithName target file path
+		 * @return number of bytes downloaded
+		 * @throws IOException
+		 */
+		public long download(String fullPathWithName) throws IOException
+		{
+			// downloads within a call keep its priority, deadline and cancellation
+			if (runtime.currentCall.get() != null)
+				return downloadImpl(fullPathWithName);
+
+			return download(fullPathWithName, RequestPriority.NORMAL);
+		}
+
+		/**
+		 * Downloads file to the given location with given priority
+		 * @param fullPathWithName target file path
+		 * @param priority download priority
+		 * @return number of bytes downloaded
+		 * @throws IOException
+		 */
+		public long download(String fullPathWithName, RequestPriority priority) throws IOException
+		{
+			CallHandle previous = enterCall(new CallHandle().withPriority(priority));
+
+			try
+			{
+				return downloadImpl(fullPathWithName);
+			}
+			finally
+			{
+				exitCall(previous);
+			}
+		}
+
+		private long downloadImpl(String fullPathWithName) throws IOException
+		{
+			ClientEvents.Span span = ClientEvents.INSTANCE.saveFile().appCode(name).endpoint(String.valueOf(url));
+			ReportFileCache cache = runtime.fileCache;
+
+			if (cache != null)
+			{
+				long bytes = cache.copyTo(getCacheKey(), remoteSource(), Paths.get(fullPathWithName));
+				span.bytes(bytes).commit();
+				return bytes;
+			}
 
 			Path parentDir = (new File(fullPathWithName)).toPath().getParent();
-			if (!Files.exists(parentDir))
+			if (parentDir != null && !Files.exists(parentDir))
 				Files.createDirectories(parentDir);
-			Files.copy(getStream(), Paths.get(fullPathWithName), StandardCopyOption.REPLACE_EXISTING);
 
-			} catch (Exception e) {}
+			InputStream stream = getStream();
+			try
+			{
+				long bytes = Files.copy(stream, Paths.get(fullPathWithName), StandardCopyOption.REPLACE_EXISTING);
+				span.bytes(bytes).commit();
+				return bytes;
+			}
+			finally
+			{
+				stream.close();
+			}
 		}
 		
 		public void saveTo(String location) throws IOException
@@ -917,6 +3066,7 @@ public class AppChains
 		private String status;
 		private Map<String, Object> source;
 		private List<Map<String, Object>> resultProps;
+		private AppChainsEndpoint endpoint;
 		
 		public List<Map<String, Object>> getResultProps()
 		{
@@ -977,6 +3127,19 @@ public class AppChains
 		{
 			this.source = source;
 		}
+
+		/**
+		 * @return endpoint that ran the completed job, null if unknown
+		 */
+		public AppChainsEndpoint getEndpoint()
+		{
+			return endpoint;
+		}
+
+		public void setEndpoint(AppChainsEndpoint endpoint)
+		{
+			this.endpoint = endpoint;
+		}
 	}
 	
 	/**
@@ -997,6 +3160,141 @@ public class AppChains
 		}
 	}
 	
+	/**
+	 * Serializes raw job results to the json they were received as, along
+	 * with the endpoint that ran the job. Decoding only parses the json,
+	 * spilled results have already been accounted for
+	 */
+	class RawReportJobResultCodec implements SpillingResultMap.Codec<RawReportJobResult>
+	{
+		public byte[] encode(RawReportJobResult value)
+		{
+			Map<String, Object> data = new HashMap<String, Object>(2);
+			data.put("Endpoint", value.getEndpoint() == null ? null : value.getEndpoint().toString());
+			data.put("Source", value.getSource());
+			return toJson(data).getBytes(UTF8);
+		}
+
+		@SuppressWarnings("unchecked")
+		public RawReportJobResult decode(byte[] data)
+		{
+			Map<String, Object> decoded = (Map<String, Object>) fromJson(new String(data, UTF8));
+			RawReportJobResult result = parseRawJobResult((Map<String, Object>) decoded.get("Source"));
+
+			if (decoded.get("Endpoint") != null)
+			{
+				try
+				{
+					result.setEndpoint(runtime.endpointPool.lookup(new URL((String) decoded.get("Endpoint"))));
+				}
+				catch (MalformedURLException e)
+				{
+					throw new RuntimeException(String.format("Invalid spilled endpoint %s", decoded.get("Endpoint")), e);
+				}
+			}
+
+			return result;
+		}
+	}
+
+	/**
+	 * Serializes reports to json
+	 */
+	class ReportCodec implements SpillingResultMap.Codec<Report>
+	{
+		public byte[] encode(Report value)
+		{
+			List<Map<String, Object>> results = new ArrayList<Map<String, Object>>(value.getResults().size());
+
+			for (Result result : value.getResults())
+			{
+				Map<String, Object> item = new HashMap<String, Object>(5);
+				item.put("Name", result.getName());
+				item.put("Type", result.getValue().getType().name());
+
+				if (result.getValue() instanceof TextResultValue)
+				{
+					item.put("Data", ((TextResultValue) result.getValue()).getData());
+				}
+				else if (result.getValue() instanceof FileResultValue)
+				{
+					FileResultValue file = (FileResultValue) result.getValue();
+					item.put("FileName", file.getName());
+					item.put("Extension", file.getExtension());
+					item.put("Url", file.getUrl() == null ? null : file.getUrl().toString());
+				}
+
+				results.add(item);
+			}
+
+			Map<String, Object> data = new HashMap<String, Object>(2);
+			data.put("Succeeded", value.isSucceeded());
+			data.put("Results", results);
+			return toJson(data).getBytes(UTF8);
+		}
+
+		@SuppressWarnings("unchecked")
+		public Report decode(byte[] data)
+		{
+			Map<String, Object> decoded = (Map<String, Object>) fromJson(new String(data, UTF8));
+			List<Map<String, Object>> items = (List<Map<String, Object>>) decoded.get("Results");
+			List<Result> results = new ArrayList<Result>(items.size());
+
+			for (Map<String, Object> item : items)
+			{
+				String name = (String) item.get("Name");
+
+				if (ResultType.valueOf((String) item.get("Type")) == ResultType.FILE)
+				{
+					URL url;
+					try
+					{
+						url = item.get("Url") == null ? null : new URL((String) item.get("Url"));
+					}
+					catch (MalformedURLException e)
+					{
+						throw new RuntimeException(String.format("Invalid spilled file URL %s", item.get("Url")), e);
+					}
+					results.add(new Result(name, new FileResultValue(
+							(String) item.get("FileName"), (String) item.get("Extension"), url)));
+				}
+				else
+				{
+					results.add(new Result(name, new TextResultValue((String) item.get("Data"))));
+				}
+			}
+
+			Report report = new Report();
+			report.setSucceeded((Boolean) decoded.get("Succeeded"));
+			report.setResults(results);
+			return report;
+		}
+	}
+
+	/**
+	 * Exception raised when endpoint failed to serve request
+	 */
+	static class EndpointFailure extends RuntimeException
+	{
+		private final static long serialVersionUID = 1L;
+
+		private final boolean connectFailure;
+
+		public EndpointFailure(String message, Throwable cause, boolean connectFailure)
+		{
+			super(message, cause);
+			this.connectFailure = connectFailure;
+		}
+
+		/**
+		 * @return true if request didn't reach the server
+		 */
+		public boolean isConnectFailure()
+		{
+			return connectFailure;
+		}
+	}
+
 	/**
 	 * Class that represents generic HTTP response
 	 */
@@ -1004,6 +3302,7 @@ public class AppChains
 	{
 		private Integer responseCode;
 		private String responseData;
+		private AppChainsEndpoint endpoint;
 		
 		public HttpResponse(Integer responseCode, String responseData)
 		{
@@ -1020,5 +3319,15 @@ public class AppChains
 		{
 			return responseData;
 		}
+
+		public AppChainsEndpoint getEndpoint()
+		{
+			return endpoint;
+		}
+
+		void setEndpoint(AppChainsEndpoint endpoint)
+		{
+			this.endpoint = endpoint;
+		}
 	}
 }
@@ -0,0 +1,109 @@
+package com.sequencing.appchains;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+
+/**
+ * Class that represents single remote host (scheme, hostname and port)
+ * able to serve AppChains or Beacon requests
+ */
+public final class AppChainsEndpoint
+{
+	/**
+	 * Schema to access remote API (http or https)
+	 */
+	private final String schema;
+
+	/**
+	 * Remote hostname to send requests to
+	 */
+	private final String hostname;
+
+	/**
+	 * Port to access remote API
+	 */
+	private final int port;
+
+	public AppChainsEndpoint(String schema, String hostname, int port)
+	{
+		if (schema == null || hostname == null)
+			throw new IllegalArgumentException("Endpoint schema and hostname are required");
+
+		this.schema = schema.toLowerCase();
+		this.hostname = hostname;
+		this.port = port;
+	}
+
+	/**
+	 * Creates endpoint that uses https on the default port
+	 * @param hostname remote hostname
+	 * @return endpoint
+	 */
+	public static AppChainsEndpoint https(String hostname)
+	{
+		return new AppChainsEndpoint("https", hostname, 443);
+	}
+
+	public String getSchema()
+	{
+		return schema;
+	}
+
+	public String getHostname()
+	{
+		return hostname;
+	}
+
+	public int getPort()
+	{
+		return port;
+	}
+
+	/**
+	 * Constructs URL pointing to this endpoint
+	 * @param context path and query string
+	 * @return URL
+	 * @throws MalformedURLException
+	 */
+	public URL toUrl(String context) throws MalformedURLException
+	{
+		return new URL(schema, hostname, port, context);
+	}
+
+	/**
+	 * Checks whether given URL is served by this endpoint
+	 * @param url URL to check
+	 * @return true if scheme, host and port match
+	 */
+	boolean matches(URL url)
+	{
+		int urlPort = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+		return schema.equalsIgnoreCase(url.getProtocol())
+				&& hostname.equalsIgnoreCase(url.getHost())
+				&& port == urlPort;
+	}
+
+	@Override
+	public boolean equals(Object o)
+	{
+		if (this == o)
+			return true;
+		if (!(o instanceof AppChainsEndpoint))
+			return false;
+
+		AppChainsEndpoint other = (AppChainsEndpoint) o;
+		return port == other.port && schema.equals(other.schema) && hostname.equalsIgnoreCase(other.hostname);
+	}
+
+	@Override
+	public int hashCode()
+	{
+		return 31 * (31 * schema.hashCode() + hostname.toLowerCase().hashCode()) + port;
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format("%s://%s:%d", schema, hostname, port);
+	}
+}
@@ -0,0 +1,355 @@
+package com.sequencing.appchains;
+
+import java.io.Closeable;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+/**
+ * State shared by AppChains clients: endpoints with their health and load
+ * statistics, json serializer, hedging policy, report file cache and the job
+ * status poller. Serving many OAuth tokens from one runtime costs a single
+ * lightweight {@link AppChains} view per token instead of a full client each.
+ *
+ * Jobs of all views are polled by one background poller that batches status
+ * requests per token and serves tokens round-robin, so one user's huge batch
+ * can't starve interactive users.
+ *
+ * HTTP requests of all views share concurrency limits: part of the capacity
+ * is reserved for {@link RequestPriority#INTERACTIVE} calls and
+ * {@link RequestPriority#BULK} calls may only use a share of it.
+ *
+ * Statistics and tunables are available over JMX once the runtime is
+ * registered with {@link #registerMBean()}.
+ */
+public class AppChainsRuntime implements Closeable
+{
+	/**
+	 * Default maximum number of concurrent HTTP requests
+	 */
+	private final static int DEFAULT_MAX_CONCURRENT_REQUESTS = 64;
+
+	/**
+	 * Default number of concurrent requests reserved for interactive calls
+	 */
+	private final static int DEFAULT_INTERACTIVE_RESERVE = 8;
+
+	/**
+	 * Default maximum number of concurrent bulk requests
+	 */
+	private final static int DEFAULT_BULK_LIMIT = 32;
+
+	/**
+	 * Default interval between job status polls in milliseconds
+	 */
+	private final static long DEFAULT_POLL_INTERVAL_MILLIS = 1000;
+
+	/**
+	 * Default maximum number of jobs polled by a single GetAppResultsBatch request,
+	 * larger batches are polled in chunks so that other calls get their turn in between
+	 */
+	private final static int DEFAULT_BATCH_POLL_SIZE = 100;
+
+	/**
+	 * Default maximum number of report requests submitted by a single StartAppBatch
+	 * request of a cohort run
+	 */
+	private final static int DEFAULT_BATCH_SUBMIT_SIZE = 1000;
+
+	/**
+	 * Sequence number used to name MBeans of runtimes within the JVM
+	 */
+	private final static AtomicInteger MBEAN_SEQUENCE = new AtomicInteger();
+
+	/**
+	 * Remote endpoints to send AppChains requests to
+	 */
+	final EndpointPool endpointPool;
+
+	/**
+	 * Remote endpoint to send Beacon requests to
+	 */
+	final AppChainsEndpoint beaconEndpoint;
+
+	/**
+	 * Thread-safe json serializer shared by all requests
+	 */
+	final Gson gson = new GsonBuilder().create();
+
+	/**
+	 * Deadline and cancellation handle of the call running on current thread
+	 */
+	final ThreadLocal<CallHandle> currentCall = new ThreadLocal<CallHandle>();
+
+	/**
+	 * Priority-aware limit of concurrent HTTP requests
+	 */
+	final PriorityRequestGate requestGate = new PriorityRequestGate(DEFAULT_MAX_CONCURRENT_REQUESTS,
+			DEFAULT_INTERACTIVE_RESERVE, DEFAULT_BULK_LIMIT);
+
+	/**
+	 * Last seen status of every submitted job that hasn't completed yet
+	 */
+	final ConcurrentMap<Integer, String> jobStatuses = new ConcurrentHashMap<Integer, String>();
+
+	/**
+	 * Hedging policy for idempotent requests, null when hedging is off
+	 */
+	volatile RequestHedger hedger;
+
+	/**
+	 * Local cache for report files, null when caching is off
+	 */
+	volatile ReportFileCache fileCache;
+
+	/**
+	 * Poller shared by all views, null for standalone clients that poll on caller threads
+	 */
+	private final SharedJobPoller poller;
+
+	private volatile long pollIntervalMillis = DEFAULT_POLL_INTERVAL_MILLIS;
+	private volatile int batchPollSize = DEFAULT_BATCH_POLL_SIZE;
+	private volatile int batchSubmitSize = DEFAULT_BATCH_SUBMIT_SIZE;
+	private ObjectName mbeanName;
+
+	/**
+	 * Creates runtime with shared job poller
+	 * @param endpoints endpoints to call
+	 * @param beaconEndpoint endpoint for Beacon requests
+	 */
+	public AppChainsRuntime(List<AppChainsEndpoint> endpoints, AppChainsEndpoint beaconEndpoint)
+	{
+		this(endpoints, beaconEndpoint, true);
+	}
+
+	AppChainsRuntime(List<AppChainsEndpoint> endpoints, AppChainsEndpoint beaconEndpoint, boolean sharedPolling)
+	{
+		this.endpointPool = new EndpointPool(endpoints);
+		this.beaconEndpoint = beaconEndpoint;
+		this.poller = sharedPolling ? new SharedJobPoller(DEFAULT_POLL_INTERVAL_MILLIS) : null;
+	}
+
+	/**
+	 * Creates lightweight client view using given OAuth token
+	 * @param token OAuth security token
+	 * @return client sharing this runtime
+	 */
+	public AppChains forToken(String token)
+	{
+		return new AppChains(token, this);
+	}
+
+	SharedJobPoller getPoller()
+	{
+		return poller;
+	}
+
+	/**
+	 * Enables hedging of idempotent GET requests (job polls, report files,
+	 * beacons) of all clients of the runtime. When response to a request
+	 * doesn't arrive within the given latency percentile of its endpoint,
+	 * duplicate request is sent and the slower one is aborted
+	 * @param percentile latency percentile to hedge after (i.e. 0.95)
+	 * @param budgetRatio maximum share of requests that may be duplicated (i.e. 0.05)
+	 */
+	public void enableHedging(double percentile, double budgetRatio)
+	{
+		RequestHedger previous = hedger;
+		hedger = new RequestHedger(percentile, budgetRatio);
+
+		if (previous != null)
+			previous.shutdown();
+	}
+
+	/**
+	 * Disables hedging of idempotent requests
+	 */
+	public void disableHedging()
+	{
+		RequestHedger previous = hedger;
+		hedger = null;
+
+		if (previous != null)
+			previous.shutdown();
+	}
+
+	/**
+	 * Sets local cache used by file results of all clients for downloads
+	 * and memory-mapped access. Pass null to disable caching
+	 * @param fileCache report file cache
+	 */
+	public void setFileCache(ReportFileCache fileCache)
+	{
+		this.fileCache = fileCache;
+	}
+
+	/**
+	 * Changes limits of concurrent HTTP requests, including report file downloads
+	 * @param maxConcurrent maximum number of concurrent requests
+	 * @param interactiveReserve number of requests only interactive calls may use
+	 * @param bulkLimit maximum number of concurrent bulk requests
+	 */
+	public void setRequestLimits(int maxConcurrent, int interactiveReserve, int bulkLimit)
+	{
+		requestGate.setLimits(maxConcurrent, interactiveReserve, bulkLimit);
+	}
+
+	public long getPollIntervalMillis()
+	{
+		return pollIntervalMillis;
+	}
+
+	/**
+	 * Changes interval between job status polls, applies to polls already in progress
+	 * @param pollIntervalMillis interval in milliseconds
+	 */
+	public void setPollIntervalMillis(long pollIntervalMillis)
+	{
+		if (pollIntervalMillis < 1)
+			throw new IllegalArgumentException("Poll interval should be positive");
+
+		this.pollIntervalMillis = pollIntervalMillis;
+
+		if (poller != null)
+			poller.setTickMillis(pollIntervalMillis);
+	}
+
+	public int getBatchPollSize()
+	{
+		return batchPollSize;
+	}
+
+	/**
+	 * Changes maximum number of jobs polled by a single GetAppResultsBatch request
+	 * @param batchPollSize number of jobs
+	 */
+	public void setBatchPollSize(int batchPollSize)
+	{
+		if (batchPollSize < 1)
+			throw new IllegalArgumentException("Batch poll size should be positive");
+
+		this.batchPollSize = batchPollSize;
+	}
+
+	public int getBatchSubmitSize()
+	{
+		return batchSubmitSize;
+	}
+
+	/**
+	 * Changes maximum number of report requests submitted by a single
+	 * StartAppBatch request of a cohort run
+	 * @param batchSubmitSize number of requests
+	 */
+	public void setBatchSubmitSize(int batchSubmitSize)
+	{
+		if (batchSubmitSize < 1)
+			throw new IllegalArgumentException("Batch submit size should be positive");
+
+		this.batchSubmitSize = batchSubmitSize;
+	}
+
+	/**
+	 * Registers runtime management bean with the platform MBean server,
+	 * the bean is unregistered when the runtime is closed
+	 * @return name the bean is registered under
+	 */
+	public synchronized ObjectName registerMBean()
+	{
+		if (mbeanName != null)
+			return mbeanName;
+
+		try
+		{
+			ObjectName name = new ObjectName(String.format("com.sequencing.appchains:type=AppChainsRuntime,name=runtime-%d",
+					MBEAN_SEQUENCE.incrementAndGet()));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(new RuntimeManagement(this), name);
+			mbeanName = name;
+			return name;
+		}
+		catch (JMException e)
+		{
+			throw new RuntimeException(String.format("Unable to register Appchains runtime MBean: %s", e.getMessage()), e);
+		}
+	}
+
+	/**
+	 * Records status of a job that is still being processed
+	 */
+	void onJobStatus(Integer jobId, String status)
+	{
+		jobStatuses.put(jobId, status);
+	}
+
+	/**
+	 * Forgets job that has completed or was abandoned
+	 */
+	void onJobFinished(Integer jobId)
+	{
+		jobStatuses.remove(jobId);
+	}
+
+	public List<AppChainsEndpoint> getEndpoints()
+	{
+		return endpointPool.getEndpoints();
+	}
+
+	/**
+	 * Starts periodic background health checks of the endpoints.
+	 * Failing endpoints are taken out of rotation until they recover
+	 * @param interval interval between checks
+	 * @param unit interval time unit
+	 */
+	public void startHealthChecks(long interval, TimeUnit unit)
+	{
+		endpointPool.startHealthChecks(interval, unit);
+	}
+
+	/**
+	 * Stops periodic background health checks
+	 */
+	public void stopHealthChecks()
+	{
+		endpointPool.stopHealthChecks();
+	}
+
+	/**
+	 * Stops background threads. Calls waiting on the shared poller fail
+	 */
+	public void close()
+	{
+		stopHealthChecks();
+		disableHedging();
+
+		if (poller != null)
+			poller.shutdown();
+
+		unregisterMBean();
+	}
+
+	private synchronized void unregisterMBean()
+	{
+		if (mbeanName == null)
+			return;
+
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+		try
+		{
+			server.unregisterMBean(mbeanName);
+		}
+		catch (JMException e) {}
+
+		mbeanName = null;
+	}
+}
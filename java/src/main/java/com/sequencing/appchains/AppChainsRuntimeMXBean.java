@@ -0,0 +1,146 @@
+package com.sequencing.appchains;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Management interface of {@link AppChainsRuntime}. Exposes job, queue,
+ * endpoint and cache statistics and allows tuning polling and concurrency
+ * of a running client, i.e. to throttle it during an incident.
+ *
+ * @see AppChainsRuntime#registerMBean()
+ */
+public interface AppChainsRuntimeMXBean
+{
+	/**
+	 * @return submitted jobs that haven't completed yet, keyed by last seen status
+	 */
+	Map<String, Integer> getInFlightJobsByStatus();
+
+	/**
+	 * @return number of jobs tracked by the shared poller, 0 for standalone runtime
+	 */
+	int getPolledJobCount();
+
+	/**
+	 * @return number of clients with jobs tracked by the shared poller, 0 for standalone runtime
+	 */
+	int getPollingTenantCount();
+
+	/**
+	 * @return number of HTTP requests and file downloads in flight
+	 */
+	int getRequestsInFlight();
+
+	/**
+	 * @return requests waiting for admission keyed by priority
+	 */
+	Map<String, Integer> getRequestsWaitingByPriority();
+
+	/**
+	 * @return number of requests in flight per endpoint
+	 */
+	Map<String, Integer> getEndpointOutstandingRequests();
+
+	/**
+	 * @return smoothed request latency per endpoint in milliseconds
+	 */
+	Map<String, Double> getEndpointLatencyMillis();
+
+	/**
+	 * @return adaptive limit of concurrent requests per endpoint
+	 */
+	Map<String, Integer> getEndpointConcurrencyLimits();
+
+	/**
+	 * @return endpoints currently taken out of rotation
+	 */
+	List<String> getUnhealthyEndpoints();
+
+	boolean isHedgingEnabled();
+
+	/**
+	 * @return size of report file cache in bytes, -1 when caching is off
+	 */
+	long getFileCacheSize();
+
+	/**
+	 * @return size limit of report file cache in bytes, -1 when caching is off
+	 */
+	long getFileCacheMaxSize();
+
+	long getFileCacheHits();
+
+	long getFileCacheMisses();
+
+	/**
+	 * @return interval between job status polls in milliseconds, applies to
+	 * standalone polling and to rounds of the shared poller
+	 */
+	long getPollIntervalMillis();
+
+	void setPollIntervalMillis(long pollIntervalMillis);
+
+	/**
+	 * @return maximum number of jobs polled by a single GetAppResultsBatch request
+	 */
+	int getBatchPollSize();
+
+	void setBatchPollSize(int batchPollSize);
+
+	/**
+	 * @return maximum number of report requests submitted by a single StartAppBatch request
+	 */
+	int getBatchSubmitSize();
+
+	void setBatchSubmitSize(int batchSubmitSize);
+
+	/**
+	 * @return jobs of a single client polled by the shared poller per round, 0 for standalone runtime
+	 */
+	int getPollJobsPerTenant();
+
+	/**
+	 * @param pollJobsPerTenant jobs of a single client polled per round
+	 * @throws IllegalStateException if runtime has no shared poller
+	 */
+	void setPollJobsPerTenant(int pollJobsPerTenant);
+
+	/**
+	 * @return jobs of all clients polled by the shared poller per round, 0 for standalone runtime
+	 */
+	int getPollJobsPerRound();
+
+	/**
+	 * @param pollJobsPerRound jobs of all clients polled per round
+	 * @throws IllegalStateException if runtime has no shared poller
+	 */
+	void setPollJobsPerRound(int pollJobsPerRound);
+
+	/**
+	 * @return maximum number of concurrent HTTP requests
+	 */
+	int getMaxConcurrentRequests();
+
+	void setMaxConcurrentRequests(int maxConcurrentRequests);
+
+	/**
+	 * @return concurrent requests reserved for interactive calls
+	 */
+	int getInteractiveReserve();
+
+	void setInteractiveReserve(int interactiveReserve);
+
+	/**
+	 * @return maximum number of concurrent bulk requests as configured
+	 */
+	int getBulkRequestLimit();
+
+	void setBulkRequestLimit(int bulkRequestLimit);
+
+	/**
+	 * @return bulk request limit in effect, the configured one capped by
+	 * requests not reserved for interactive calls
+	 */
+	int getEffectiveBulkRequestLimit();
+}
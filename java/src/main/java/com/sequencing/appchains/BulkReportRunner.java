@@ -0,0 +1,414 @@
+package com.sequencing.appchains;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sequencing.appchains.AppChains.FileResultValue;
+import com.sequencing.appchains.AppChains.Report;
+import com.sequencing.appchains.AppChains.Result;
+import com.sequencing.appchains.AppChains.TextResultValue;
+
+/**
+ * Runs reports for a stream of (chain, datasourceId) pairs read from CSV or NDJSON
+ * and writes every completed report as a single NDJSON line as soon as it arrives.
+ * Rows are identified by their position in the input; finished rows are recorded
+ * in a checkpoint file so that a rerun over the same input skips them.
+ *
+ * Usage: BulkReportRunner --token TOKEN --input pairs.csv --output reports.ndjson
+ *        [--host api.sequencing.com] [--format csv|ndjson] [--checkpoint file]
+ *        [--concurrency 4] [--batch-size 20]
+ */
+public class BulkReportRunner
+{
+	private final static Charset UTF8 = Charset.forName("UTF-8");
+
+	private final static int DEFAULT_CONCURRENCY = 4;
+
+	private final static int DEFAULT_BATCH_SIZE = 20;
+
+	private final AppChains chains;
+	private final int concurrency;
+	private final int batchSize;
+	private final Gson gson = new GsonBuilder().create();
+
+	private final AtomicLong completed = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+
+	/**
+	 * First error writing output or checkpoint, rethrown once workers finish
+	 */
+	private final AtomicReference<IOException> writeError = new AtomicReference<IOException>();
+
+	public BulkReportRunner(AppChains chains, int concurrency, int batchSize)
+	{
+		if (concurrency < 1 || batchSize < 1)
+			throw new IllegalArgumentException("Concurrency and batch size should be positive");
+
+		this.chains = chains;
+		this.concurrency = concurrency;
+		this.batchSize = batchSize;
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		Map<String, String> options = parseOptions(args);
+
+		if (!options.containsKey("token") || !options.containsKey("input") || !options.containsKey("output"))
+		{
+			System.err.println("Usage: BulkReportRunner --token TOKEN --input FILE|- --output FILE "
+					+ "[--host HOST] [--format csv|ndjson] [--checkpoint FILE] [--concurrency N] [--batch-size N]");
+			System.exit(2);
+		}
+
+		String input = options.get("input");
+		String format = options.containsKey("format") ? options.get("format")
+				: (input.toLowerCase().endsWith(".csv") ? "csv" : "ndjson");
+		String host = options.containsKey("host") ? options.get("host") : "api.sequencing.com";
+		String checkpoint = options.containsKey("checkpoint") ? options.get("checkpoint") : options.get("output") + ".checkpoint";
+
+		BulkReportRunner runner = new BulkReportRunner(new AppChains(options.get("token"), host),
+				options.containsKey("concurrency") ? Integer.parseInt(options.get("concurrency")) : DEFAULT_CONCURRENCY,
+				options.containsKey("batch-size") ? Integer.parseInt(options.get("batch-size")) : DEFAULT_BATCH_SIZE);
+
+		Reader reader = input.equals("-") ? new InputStreamReader(System.in, UTF8)
+				: new InputStreamReader(new FileInputStream(input), UTF8);
+
+		try
+		{
+			runner.run(reader, format.equalsIgnoreCase("csv"), new File(options.get("output")), new File(checkpoint));
+		}
+		finally
+		{
+			reader.close();
+		}
+
+		System.err.println(String.format("Completed %d reports, %d failed", runner.getCompleted(), runner.getFailed()));
+		System.exit(runner.getFailed() > 0 ? 1 : 0);
+	}
+
+	public long getCompleted()
+	{
+		return completed.get();
+	}
+
+	public long getFailed()
+	{
+		return failed.get();
+	}
+
+	/**
+	 * Processes all input rows. Output and checkpoint files are appended to.
+	 * Once output can't be written no further batches are started
+	 * @param input source of (chain, datasourceId) pairs
+	 * @param csv true if input is CSV, false if NDJSON
+	 * @param output NDJSON file with reports
+	 * @param checkpoint file with numbers of finished rows
+	 * @throws IOException if input can't be read or output / checkpoint can't be written
+	 * @throws InterruptedException
+	 */
+	public void run(Reader input, boolean csv, File output, File checkpoint) throws IOException, InterruptedException
+	{
+		BitSet finished = readCheckpoint(checkpoint);
+
+		final Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(output, true), UTF8));
+		final Writer checkpointOut = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(checkpoint, true), UTF8));
+
+		ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+		// bounds number of batches read ahead of the workers so memory doesn't depend on input size
+		final Semaphore permits = new Semaphore(concurrency * 2);
+
+		try
+		{
+			BufferedReader reader = new BufferedReader(input);
+			List<Row> batch = new ArrayList<Row>(batchSize);
+			String line;
+			int rowNumber = 0;
+
+			while (writeError.get() == null && (line = reader.readLine()) != null)
+			{
+				Row row = parseRow(line, csv, rowNumber);
+				if (row == null)
+					continue;
+				rowNumber++;
+
+				if (finished.get(row.number))
+					continue;
+
+				if (batch.size() == batchSize)
+				{
+					submit(executor, permits, batch, out, checkpointOut);
+					batch = new ArrayList<Row>(batchSize);
+				}
+
+				batch.add(row);
+			}
+
+			if (!batch.isEmpty() && writeError.get() == null)
+				submit(executor, permits, batch, out, checkpointOut);
+		}
+		finally
+		{
+			executor.shutdown();
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			out.close();
+			checkpointOut.close();
+		}
+
+		IOException error = writeError.get();
+		if (error != null)
+			throw error;
+	}
+
+	private void submit(ExecutorService executor, final Semaphore permits, final List<Row> batch,
+			final Writer out, final Writer checkpointOut) throws InterruptedException
+	{
+		permits.acquire();
+
+		executor.execute(new Runnable()
+		{
+			public void run()
+			{
+				try
+				{
+					processBatch(batch, out, checkpointOut);
+				}
+				finally
+				{
+					permits.release();
+				}
+			}
+		});
+	}
+
+	private void processBatch(List<Row> batch, Writer out, Writer checkpointOut)
+	{
+		Map<String, Report> reports;
+
+		try
+		{
+			// requests are keyed by row number, so a batch may hold the same chain any number of times
+			List<ReportRequest> requests = new ArrayList<ReportRequest>(batch.size());
+			for (Row row : batch)
+				requests.add(new ReportRequest(String.valueOf(row.number), row.chain, row.datasourceId));
+
+			// cohort runs yield to interactive calls sharing the runtime
+			reports = chains.getReportCohort("StartAppBatch", requests,
+					new CallHandle().withPriority(RequestPriority.BULK));
+		}
+		catch (Exception e)
+		{
+			for (Row row : batch)
+				writeFailure(row, e, out);
+			return;
+		}
+
+		for (Row row : batch)
+		{
+			Report report = reports.get(String.valueOf(row.number));
+
+			if (report == null)
+				writeFailure(row, new RuntimeException("Appchains returned no report for the row"), out);
+			else
+				writeReport(row, report, out, checkpointOut);
+		}
+	}
+
+	private void writeReport(Row row, Report report, Writer out, Writer checkpointOut)
+	{
+		Map<String, Object> record = new LinkedHashMap<String, Object>();
+		record.put("row", row.number);
+		record.put("chain", row.chain);
+		record.put("datasourceId", row.datasourceId);
+		record.put("succeeded", report.isSucceeded());
+		record.put("results", toRecord(report));
+
+		try
+		{
+			// report line is flushed before checkpoint so a crash never skips unwritten rows
+			synchronized (out)
+			{
+				out.write(gson.toJson(record));
+				out.write('\n');
+				out.flush();
+			}
+			synchronized (checkpointOut)
+			{
+				checkpointOut.write(String.valueOf(row.number));
+				checkpointOut.write('\n');
+				checkpointOut.flush();
+			}
+			completed.incrementAndGet();
+		}
+		catch (IOException e)
+		{
+			failed.incrementAndGet();
+			writeError.compareAndSet(null, new IOException(String.format("Unable to write report for row %d", row.number), e));
+		}
+	}
+
+	private void writeFailure(Row row, Exception error, Writer out)
+	{
+		failed.incrementAndGet();
+
+		Map<String, Object> record = new LinkedHashMap<String, Object>();
+		record.put("row", row.number);
+		record.put("chain", row.chain);
+		record.put("datasourceId", row.datasourceId);
+		record.put("error", String.valueOf(error.getMessage()));
+
+		try
+		{
+			synchronized (out)
+			{
+				out.write(gson.toJson(record));
+				out.write('\n');
+				out.flush();
+			}
+		}
+		catch (IOException e)
+		{
+			writeError.compareAndSet(null, new IOException(String.format("Unable to write failure for row %d", row.number), e));
+		}
+	}
+
+	private List<Map<String, Object>> toRecord(Report report)
+	{
+		List<Map<String, Object>> results = new ArrayList<Map<String, Object>>(report.getResults().size());
+
+		for (Result result : report.getResults())
+		{
+			Map<String, Object> item = new LinkedHashMap<String, Object>(3);
+			item.put("name", result.getName());
+			item.put("type", result.getValue().getType().name());
+
+			if (result.getValue() instanceof TextResultValue)
+				item.put("value", ((TextResultValue) result.getValue()).getData());
+			else if (result.getValue() instanceof FileResultValue)
+				item.put("value", String.valueOf(((FileResultValue) result.getValue()).getUrl()));
+
+			results.add(item);
+		}
+
+		return results;
+	}
+
+	/**
+	 * Parses single input line
+	 * @return row or null if line is blank or CSV header
+	 */
+	private Row parseRow(String line, boolean csv, int rowNumber)
+	{
+		String trimmed = line.trim();
+		if (trimmed.isEmpty())
+			return null;
+
+		if (csv)
+		{
+			String[] columns = trimmed.split(",", -1);
+			if (columns.length < 2)
+				throw new IllegalArgumentException(String.format("Invalid CSV row %d: %s", rowNumber, line));
+
+			String chain = unquote(columns[0]), datasourceId = unquote(columns[1]);
+			if (rowNumber == 0 && chain.equalsIgnoreCase("chain"))
+				return null;
+
+			return new Row(rowNumber, chain, datasourceId);
+		}
+
+		JsonObject object = JsonParser.parseString(trimmed).getAsJsonObject();
+		if (!object.has("chain") || !object.has("datasourceId"))
+			throw new IllegalArgumentException(String.format("Invalid NDJSON row %d: %s", rowNumber, line));
+
+		return new Row(rowNumber, object.get("chain").getAsString(), object.get("datasourceId").getAsString());
+	}
+
+	private static String unquote(String value)
+	{
+		String v = value.trim();
+		if (v.length() >= 2 && v.startsWith("\"") && v.endsWith("\""))
+			v = v.substring(1, v.length() - 1).replace("\"\"", "\"");
+		return v;
+	}
+
+	/**
+	 * Reads numbers of finished rows. Last line without trailing newline was
+	 * torn by a killed run (i.e. "12" of "123"); it is cut off the file so
+	 * that the row runs again and the next number appended starts on a new line
+	 */
+	private static BitSet readCheckpoint(File checkpoint) throws IOException
+	{
+		BitSet finished = new BitSet();
+		if (!checkpoint.exists())
+			return finished;
+
+		RandomAccessFile file = new RandomAccessFile(checkpoint, "rw");
+		try
+		{
+			byte[] data = new byte[(int) file.length()];
+			file.readFully(data);
+
+			int end = data.length;
+			while (end > 0 && data[end - 1] != '\n')
+				end--;
+
+			// report line is written before checkpoint line, so dropping the torn number never loses a report
+			if (end < data.length)
+				file.setLength(end);
+
+			for (String line : new String(data, 0, end, UTF8).split("\n"))
+			{
+				line = line.trim();
+				if (!line.isEmpty())
+					finished.set(Integer.parseInt(line));
+			}
+		}
+		finally
+		{
+			file.close();
+		}
+
+		return finished;
+	}
+
+	private static Map<String, String> parseOptions(String[] args)
+	{
+		Map<String, String> options = new HashMap<String, String>();
+
+		for (int i = 0; i + 1 < args.length; i += 2)
+		{
+			if (!args[i].startsWith("--"))
+				throw new IllegalArgumentException(String.format("Unexpected argument %s", args[i]));
+			options.put(args[i].substring(2), args[i + 1]);
+		}
+
+		return options;
+	}
+
+	/**
+	 * Class that represents single input row
+	 */
+	private static class Row
+	{
+		private final int number;
+		private final String chain;
+		private final String datasourceId;
+
+		Row(int number, String chain, String datasourceId)
+		{
+			this.number = number;
+			this.chain = chain;
+			this.datasourceId = datasourceId;
+		}
+	}
+}
@@ -0,0 +1,248 @@
+package com.sequencing.appchains;
+
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deadline and cancellation handle for a single report call. Once the
+ * deadline passes or {@link #cancel()} is called the client stops polling,
+ * aborts in-flight HTTP requests and, if configured, asks the server to
+ * cancel submitted jobs. The call then fails with {@link CancellationException}.
+ */
+public class CallHandle
+{
+	private final long deadlineNanos;
+	private final CountDownLatch cancelled = new CountDownLatch(1);
+	private final Set<HttpURLConnection> connections =
+			Collections.newSetFromMap(new ConcurrentHashMap<HttpURLConnection, Boolean>());
+	private final Set<Integer> jobIds = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+
+	private volatile String cancelRemoteMethodName;
+	private volatile RequestPriority priority = RequestPriority.NORMAL;
+
+	/**
+	 * Disconnects attached connections once the deadline passes, scheduled
+	 * only while the call has connections open
+	 */
+	private ScheduledFuture<?> expiry;
+
+	/**
+	 * Creates handle without deadline that can only be cancelled explicitly
+	 */
+	public CallHandle()
+	{
+		this.deadlineNanos = Long.MAX_VALUE;
+	}
+
+	private CallHandle(long timeout, TimeUnit unit)
+	{
+		this.deadlineNanos = System.nanoTime() + unit.toNanos(timeout);
+	}
+
+	/**
+	 * Creates handle that expires after given timeout
+	 * @param timeout time the call may take
+	 * @param unit timeout unit
+	 * @return handle
+	 */
+	public static CallHandle withTimeout(long timeout, TimeUnit unit)
+	{
+		return new CallHandle(timeout, unit);
+	}
+
+	/**
+	 * Asks the client to cancel submitted jobs on the server when call is abandoned
+	 * @param remoteMethodName REST endpoint name accepting {"IdJob": id} requests
+	 * @return this handle
+	 */
+	public CallHandle cancelOnServer(String remoteMethodName)
+	{
+		this.cancelRemoteMethodName = remoteMethodName;
+		return this;
+	}
+
+	/**
+	 * Sets priority of requests made within this call. Interactive calls use
+	 * capacity reserved for them, bulk calls yield to other calls whenever
+	 * the client runs at its concurrency limit
+	 * @param priority request priority
+	 * @return this handle
+	 */
+	public CallHandle withPriority(RequestPriority priority)
+	{
+		if (priority == null)
+			throw new IllegalArgumentException("Priority should be specified");
+
+		this.priority = priority;
+		return this;
+	}
+
+	public RequestPriority getPriority()
+	{
+		return priority;
+	}
+
+	/**
+	 * Cancels the call, in-flight HTTP requests are aborted immediately
+	 */
+	public void cancel()
+	{
+		cancelled.countDown();
+
+		for (HttpURLConnection connection : connections)
+			connection.disconnect();
+	}
+
+	public boolean isCancelled()
+	{
+		return cancelled.getCount() == 0;
+	}
+
+	public boolean isExpired()
+	{
+		return deadlineNanos != Long.MAX_VALUE && System.nanoTime() - deadlineNanos >= 0;
+	}
+
+	/**
+	 * @return milliseconds left until deadline, Long.MAX_VALUE if there is no deadline
+	 */
+	public long getRemainingMillis()
+	{
+		if (deadlineNanos == Long.MAX_VALUE)
+			return Long.MAX_VALUE;
+
+		return Math.max(TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime()), 0);
+	}
+
+	/**
+	 * @return identifiers of jobs submitted within this call
+	 */
+	public List<Integer> getJobIds()
+	{
+		return new ArrayList<Integer>(jobIds);
+	}
+
+	String getCancelRemoteMethodName()
+	{
+		return cancelRemoteMethodName;
+	}
+
+	/**
+	 * Throws if call was cancelled or deadline has passed
+	 */
+	void checkActive()
+	{
+		if (isCancelled())
+			throw new CancellationException("Appchains call was cancelled");
+
+		if (isExpired())
+			throw new CancellationException("Appchains call deadline exceeded");
+	}
+
+	/**
+	 * Waits between polls, returns early on cancellation
+	 * @param millis time to wait
+	 * @throws InterruptedException
+	 */
+	void await(long millis) throws InterruptedException
+	{
+		checkActive();
+		cancelled.await(Math.min(millis, getRemainingMillis()), TimeUnit.MILLISECONDS);
+		checkActive();
+	}
+
+	/**
+	 * Limits timeout so that I/O doesn't outlive the deadline
+	 * @param timeoutMillis default timeout
+	 * @return timeout to use
+	 */
+	int clampTimeout(int timeoutMillis)
+	{
+		long remaining = getRemainingMillis();
+		return remaining >= timeoutMillis ? timeoutMillis : (int) Math.max(remaining, 1);
+	}
+
+	void attach(HttpURLConnection connection)
+	{
+		connections.add(connection);
+		scheduleExpiry();
+
+		// cancel() or the deadline may have come before the connection was registered
+		if (isCancelled() || isExpired())
+			connection.disconnect();
+	}
+
+	void detach(HttpURLConnection connection)
+	{
+		connections.remove(connection);
+		cancelExpiry();
+	}
+
+	private synchronized void scheduleExpiry()
+	{
+		if (deadlineNanos == Long.MAX_VALUE || expiry != null)
+			return;
+
+		expiry = DeadlineTimer.INSTANCE.schedule(new Runnable()
+		{
+			public void run()
+			{
+				for (HttpURLConnection connection : connections)
+					connection.disconnect();
+			}
+		}, deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+	}
+
+	private synchronized void cancelExpiry()
+	{
+		// attach() adds the connection before scheduling, so a concurrent attach is never left without expiry
+		if (expiry != null && connections.isEmpty())
+		{
+			expiry.cancel(false);
+			expiry = null;
+		}
+	}
+
+	/**
+	 * Timer shared by all handles, created on first use
+	 */
+	private static class DeadlineTimer
+	{
+		private final static ScheduledThreadPoolExecutor INSTANCE = create();
+
+		private static ScheduledThreadPoolExecutor create()
+		{
+			ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory()
+			{
+				public Thread newThread(Runnable r)
+				{
+					Thread thread = new Thread(r, "appchains-deadline");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			timer.setRemoveOnCancelPolicy(true);
+			return timer;
+		}
+	}
+
+	void addJob(Integer jobId)
+	{
+		jobIds.add(jobId);
+	}
+
+	void removeJob(Integer jobId)
+	{
+		jobIds.remove(jobId);
+	}
+}
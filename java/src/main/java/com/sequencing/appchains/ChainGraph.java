@@ -0,0 +1,120 @@
+package com.sequencing.appchains;
+
+import java.util.*;
+
+import com.sequencing.appchains.AppChains.Report;
+
+/**
+ * Graph of chains to run on a single datasource where some chains are only
+ * needed depending on results of others (i.e. a risk chain triggering
+ * follow-up chains). A chain may only depend on chains added before it, so
+ * the graph is always acyclic.
+ *
+ * @see AppChains#getReportGraph(String, ChainGraph, String)
+ */
+public class ChainGraph
+{
+	/**
+	 * Decides whether dependent chain should run once its inputs complete
+	 */
+	public interface Condition
+	{
+		/**
+		 * @param inputs reports of chains the dependent chain depends on, keyed by chain identifier
+		 * @return true to run the dependent chain
+		 */
+		boolean isSatisfied(Map<String, Report> inputs);
+	}
+
+	/**
+	 * Runs dependent chain when all its inputs have succeeded
+	 */
+	public final static Condition ALL_SUCCEEDED = new Condition()
+	{
+		public boolean isSatisfied(Map<String, Report> inputs)
+		{
+			for (Report report : inputs.values())
+				if (!report.isSucceeded())
+					return false;
+			return true;
+		}
+	};
+
+	private final Map<String, Node> nodes = new LinkedHashMap<String, Node>();
+
+	/**
+	 * Adds chain without dependencies, it is submitted right away
+	 * @param chainId chain identifier
+	 * @return this graph
+	 */
+	public ChainGraph addChain(String chainId)
+	{
+		return addChain(chainId, Collections.<String>emptyList(), ALL_SUCCEEDED);
+	}
+
+	/**
+	 * Adds chain that runs after another one if condition holds
+	 * @param chainId chain identifier
+	 * @param dependsOn identifier of chain whose report is the input
+	 * @param condition condition evaluated on the input report
+	 * @return this graph
+	 */
+	public ChainGraph addChain(String chainId, String dependsOn, Condition condition)
+	{
+		return addChain(chainId, Collections.singletonList(dependsOn), condition);
+	}
+
+	/**
+	 * Adds chain that runs after several others if condition holds
+	 * @param chainId chain identifier
+	 * @param dependsOn identifiers of chains whose reports are the inputs
+	 * @param condition condition evaluated on the input reports
+	 * @return this graph
+	 */
+	public ChainGraph addChain(String chainId, Collection<String> dependsOn, Condition condition)
+	{
+		if (chainId == null || nodes.containsKey(chainId))
+			throw new IllegalArgumentException(String.format("Chain %s is already in the graph", chainId));
+
+		if (condition == null)
+			throw new IllegalArgumentException("Condition should be specified");
+
+		for (String dependency : dependsOn)
+			if (!nodes.containsKey(dependency))
+				throw new IllegalArgumentException(String.format(
+						"Chain %s depends on %s which should be added first", chainId, dependency));
+
+		nodes.put(chainId, new Node(new ArrayList<String>(dependsOn), condition));
+		return this;
+	}
+
+	/**
+	 * @return chain identifiers in the order they were added
+	 */
+	public Set<String> getChains()
+	{
+		return Collections.unmodifiableSet(nodes.keySet());
+	}
+
+	List<String> getDependencies(String chainId)
+	{
+		return nodes.get(chainId).dependsOn;
+	}
+
+	Condition getCondition(String chainId)
+	{
+		return nodes.get(chainId).condition;
+	}
+
+	private static class Node
+	{
+		private final List<String> dependsOn;
+		private final Condition condition;
+
+		Node(List<String> dependsOn, Condition condition)
+		{
+			this.dependsOn = dependsOn;
+			this.condition = condition;
+		}
+	}
+}
@@ -0,0 +1,144 @@
+package com.sequencing.appchains;
+
+/**
+ * Profiling events emitted by the client for job lifecycle and HTTP calls.
+ * Events are recorded with Java Flight Recorder when it is available in the
+ * running JVM; otherwise, and whenever recording is off, spans are no-ops.
+ */
+abstract class ClientEvents
+{
+	/**
+	 * Events implementation used by the client
+	 */
+	static final ClientEvents INSTANCE = load();
+
+	/**
+	 * Single timed operation. Setters return the span to allow chaining,
+	 * {@link #commit()} records the event with duration since span creation
+	 */
+	interface Span
+	{
+		Span jobId(Integer jobId);
+
+		Span appCode(String appCode);
+
+		Span endpoint(String endpoint);
+
+		Span status(String status);
+
+		Span bytes(long bytes);
+
+		Span count(int count);
+
+		void commit();
+	}
+
+	/**
+	 * Span that records nothing
+	 */
+	static final Span NOOP = new Span()
+	{
+		public Span jobId(Integer jobId)
+		{
+			return this;
+		}
+
+		public Span appCode(String appCode)
+		{
+			return this;
+		}
+
+		public Span endpoint(String endpoint)
+		{
+			return this;
+		}
+
+		public Span status(String status)
+		{
+			return this;
+		}
+
+		public Span bytes(long bytes)
+		{
+			return this;
+		}
+
+		public Span count(int count)
+		{
+			return this;
+		}
+
+		public void commit() {}
+	};
+
+	abstract Span submitJob();
+
+	abstract Span pollJob();
+
+	abstract Span pollBatch();
+
+	abstract Span processJob();
+
+	abstract Span saveFile();
+
+	abstract Span beacon();
+
+	abstract Span httpRequest();
+
+	abstract Span parseJson();
+
+	private static ClientEvents load()
+	{
+		try
+		{
+			Class.forName("jdk.jfr.Event");
+			// loaded reflectively so that the client still runs on JVMs without jdk.jfr
+			return (ClientEvents) Class.forName("com.sequencing.appchains.JfrClientEvents").getDeclaredConstructor().newInstance();
+		}
+		catch (Throwable e)
+		{
+			return new ClientEvents()
+			{
+				Span submitJob()
+				{
+					return NOOP;
+				}
+
+				Span pollJob()
+				{
+					return NOOP;
+				}
+
+				Span pollBatch()
+				{
+					return NOOP;
+				}
+
+				Span processJob()
+				{
+					return NOOP;
+				}
+
+				Span saveFile()
+				{
+					return NOOP;
+				}
+
+				Span beacon()
+				{
+					return NOOP;
+				}
+
+				Span httpRequest()
+				{
+					return NOOP;
+				}
+
+				Span parseJson()
+				{
+					return NOOP;
+				}
+			};
+		}
+	}
+}
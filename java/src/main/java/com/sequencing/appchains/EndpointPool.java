@@ -0,0 +1,527 @@
+package com.sequencing.appchains;
+
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Set of equivalent AppChains endpoints. Picks the endpoint with the least
+ * outstanding requests (ties broken by observed latency), takes failing
+ * endpoints out of rotation for a cool-down period and remembers which
+ * endpoint accepted each job so that polls go back to the same host.
+ * Requests to every endpoint are bounded by an adaptive concurrency limit
+ * derived from its round trip times and failures.
+ */
+class EndpointPool
+{
+	/**
+	 * Consecutive failures after which endpoint is taken out of rotation
+	 */
+	private final static int FAILURE_THRESHOLD = 2;
+
+	/**
+	 * Initial time endpoint stays out of rotation in milliseconds
+	 */
+	private final static long BASE_COOLDOWN_MILLIS = 1000;
+
+	/**
+	 * Upper bound for the cool-down period in milliseconds
+	 */
+	private final static long MAX_COOLDOWN_MILLIS = 60000;
+
+	/**
+	 * Timeout for active TCP health checks in milliseconds
+	 */
+	private final static int HEALTH_CHECK_TIMEOUT_MILLIS = 2000;
+
+	/**
+	 * Weight of the latest sample in latency moving average
+	 */
+	private final static double LATENCY_EWMA_WEIGHT = 0.2;
+
+	/**
+	 * Interval requests waiting for endpoint capacity re-check their call deadline with in milliseconds
+	 */
+	private final static long CAPACITY_CHECK_MILLIS = 50;
+
+	private final List<EndpointState> endpoints;
+
+	private final ConcurrentMap<Integer, EndpointState> jobAffinity = new ConcurrentHashMap<Integer, EndpointState>();
+
+	private ScheduledExecutorService healthChecker;
+
+	EndpointPool(Collection<AppChainsEndpoint> endpoints)
+	{
+		if (endpoints == null || endpoints.isEmpty())
+			throw new IllegalArgumentException("At least one AppChains endpoint is required");
+
+		List<EndpointState> states = new ArrayList<EndpointState>(endpoints.size());
+		for (AppChainsEndpoint endpoint : endpoints)
+			states.add(new EndpointState(endpoint));
+
+		this.endpoints = Collections.unmodifiableList(states);
+	}
+
+	int size()
+	{
+		return endpoints.size();
+	}
+
+	List<AppChainsEndpoint> getEndpoints()
+	{
+		List<AppChainsEndpoint> result = new ArrayList<AppChainsEndpoint>(endpoints.size());
+		for (EndpointState state : endpoints)
+			result.add(state.endpoint);
+		return result;
+	}
+
+	/**
+	 * @return number of requests in flight per endpoint
+	 */
+	Map<String, Integer> getOutstandingRequests()
+	{
+		Map<String, Integer> result = new LinkedHashMap<String, Integer>(endpoints.size());
+		for (EndpointState state : endpoints)
+			result.put(state.endpoint.toString(), state.outstanding.get());
+		return result;
+	}
+
+	/**
+	 * @return smoothed request latency per endpoint in milliseconds
+	 */
+	Map<String, Double> getLatencyMillis()
+	{
+		Map<String, Double> result = new LinkedHashMap<String, Double>(endpoints.size());
+		for (EndpointState state : endpoints)
+			result.put(state.endpoint.toString(), state.latencyMillis);
+		return result;
+	}
+
+	/**
+	 * @return endpoints currently taken out of rotation
+	 */
+	List<String> getUnhealthyEndpoints()
+	{
+		long now = System.currentTimeMillis();
+		List<String> result = new ArrayList<String>();
+		for (EndpointState state : endpoints)
+			if (!state.isAvailable(now))
+				result.add(state.endpoint.toString());
+		return result;
+	}
+
+	/**
+	 * @return number of jobs bound to endpoints
+	 */
+	int getBoundJobCount()
+	{
+		return jobAffinity.size();
+	}
+
+	/**
+	 * Picks endpoint for a new request
+	 * @return healthy endpoint with the least outstanding requests
+	 */
+	AppChainsEndpoint select()
+	{
+		return select(Collections.<AppChainsEndpoint>emptySet());
+	}
+
+	/**
+	 * Picks endpoint for a new request skipping already tried ones
+	 * @param excluded endpoints that should not be returned
+	 * @return endpoint or null if every endpoint is excluded
+	 */
+	AppChainsEndpoint select(Collection<AppChainsEndpoint> excluded)
+	{
+		long now = System.currentTimeMillis();
+		EndpointState best = null, leastBroken = null;
+
+		for (EndpointState state : endpoints)
+		{
+			if (excluded.contains(state.endpoint))
+				continue;
+
+			if (!state.isAvailable(now))
+			{
+				if (leastBroken == null || state.unhealthyUntil < leastBroken.unhealthyUntil)
+					leastBroken = state;
+				continue;
+			}
+
+			if (best == null || state.compareLoad(best) < 0)
+				best = state;
+		}
+
+		// when every candidate is down prefer the one that recovers first over failing outright
+		EndpointState chosen = best != null ? best : leastBroken;
+		return chosen == null ? null : chosen.endpoint;
+	}
+
+	/**
+	 * Picks endpoint for a duplicate of a request sent to given endpoint
+	 * @param endpoint endpoint of the original request
+	 * @return least loaded healthy endpoint other than given one, given one if
+	 *         no other endpoint is healthy
+	 */
+	AppChainsEndpoint selectAlternative(AppChainsEndpoint endpoint)
+	{
+		long now = System.currentTimeMillis();
+		EndpointState best = null;
+
+		for (EndpointState state : endpoints)
+			if (!state.endpoint.equals(endpoint) && state.isAvailable(now)
+					&& (best == null || state.compareLoad(best) < 0))
+				best = state;
+
+		return best == null ? endpoint : best.endpoint;
+	}
+
+	/**
+	 * Returns endpoint that accepted given job. Other endpoints never saw the
+	 * job, so while it cools down the caller waits for it to come back
+	 * @param jobId job identifier
+	 * @param handle call handle whose deadline/cancellation aborts waiting, may be null
+	 * @return endpoint, regular selection if job isn't bound
+	 * @throws InterruptedException
+	 */
+	AppChainsEndpoint selectForJob(Integer jobId, CallHandle handle) throws InterruptedException
+	{
+		EndpointState state = jobId == null ? null : jobAffinity.get(jobId);
+		if (state == null)
+			return select();
+
+		long wait;
+		while ((wait = state.unhealthyUntil - System.currentTimeMillis()) > 0)
+		{
+			if (handle != null)
+				handle.await(wait);
+			else
+				Thread.sleep(wait);
+		}
+
+		return state.endpoint;
+	}
+
+	/**
+	 * Remembers endpoint that accepted the job
+	 */
+	void bindJob(Integer jobId, AppChainsEndpoint endpoint)
+	{
+		EndpointState state = find(endpoint);
+		if (jobId != null && state != null)
+			jobAffinity.put(jobId, state);
+	}
+
+	/**
+	 * Forgets job affinity once job reaches terminal state
+	 * @return endpoint the job was bound to, null if it wasn't bound
+	 */
+	AppChainsEndpoint unbindJob(Integer jobId)
+	{
+		EndpointState state = jobId == null ? null : jobAffinity.remove(jobId);
+		return state == null ? null : state.endpoint;
+	}
+
+	/**
+	 * Finds pool endpoint serving given URL
+	 * @param url request URL
+	 * @return endpoint or null if URL doesn't belong to the pool
+	 */
+	AppChainsEndpoint lookup(URL url)
+	{
+		for (EndpointState state : endpoints)
+			if (state.endpoint.matches(url))
+				return state.endpoint;
+		return null;
+	}
+
+	/**
+	 * Marks request start, waits while endpoint is at its adaptive concurrency limit
+	 * @param handle call handle whose deadline/cancellation aborts waiting, may be null
+	 * @throws InterruptedException
+	 */
+	void onRequestStart(AppChainsEndpoint endpoint, CallHandle handle) throws InterruptedException
+	{
+		EndpointState state = find(endpoint);
+		if (state != null)
+			state.acquire(handle);
+	}
+
+	/**
+	 * Marks successful request completion
+	 * @param latencyNanos observed round trip time
+	 */
+	void onRequestSuccess(AppChainsEndpoint endpoint, long latencyNanos)
+	{
+		EndpointState state = find(endpoint);
+		if (state == null)
+			return;
+
+		state.concurrencyLimit.onSample(latencyNanos, state.outstanding.get());
+		state.release();
+		state.recordLatency(latencyNanos);
+		state.markHealthy();
+	}
+
+	/**
+	 * Marks failed request completion
+	 */
+	void onRequestFailure(AppChainsEndpoint endpoint)
+	{
+		EndpointState state = find(endpoint);
+		if (state == null)
+			return;
+
+		state.concurrencyLimit.onDrop();
+		state.release();
+		state.markFailure();
+	}
+
+	/**
+	 * Marks request the endpoint rejected as overloaded (HTTP 429), only its
+	 * concurrency limit is lowered, endpoint stays healthy
+	 */
+	void onRequestRejected(AppChainsEndpoint endpoint)
+	{
+		EndpointState state = find(endpoint);
+		if (state == null)
+			return;
+
+		state.concurrencyLimit.onDrop();
+		state.release();
+	}
+
+	/**
+	 * Marks request that was aborted by the client, endpoint isn't penalized
+	 */
+	void onRequestAbandoned(AppChainsEndpoint endpoint)
+	{
+		EndpointState state = find(endpoint);
+		if (state != null)
+			state.release();
+	}
+
+	/**
+	 * @return current adaptive concurrency limit per endpoint
+	 */
+	Map<String, Integer> getConcurrencyLimits()
+	{
+		Map<String, Integer> result = new LinkedHashMap<String, Integer>(endpoints.size());
+		for (EndpointState state : endpoints)
+			result.put(state.endpoint.toString(), state.concurrencyLimit.getLimit());
+		return result;
+	}
+
+	/**
+	 * Actively checks every endpoint by opening TCP connection to it
+	 */
+	void checkHealth()
+	{
+		for (EndpointState state : endpoints)
+		{
+			Socket socket = new Socket();
+			try
+			{
+				socket.connect(new InetSocketAddress(state.endpoint.getHostname(), state.endpoint.getPort()),
+						HEALTH_CHECK_TIMEOUT_MILLIS);
+				state.markHealthy();
+			}
+			catch (Exception e)
+			{
+				state.markDown();
+			}
+			finally
+			{
+				try
+				{
+					socket.close();
+				}
+				catch (Exception e) {}
+			}
+		}
+	}
+
+	/**
+	 * Starts periodic background health checks
+	 * @param interval interval between checks
+	 * @param unit interval time unit
+	 */
+	synchronized void startHealthChecks(long interval, TimeUnit unit)
+	{
+		if (healthChecker != null)
+			return;
+
+		healthChecker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+		{
+			public Thread newThread(Runnable r)
+			{
+				Thread thread = new Thread(r, "appchains-health-check");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		healthChecker.scheduleWithFixedDelay(new Runnable()
+		{
+			public void run()
+			{
+				checkHealth();
+			}
+		}, 0, interval, unit);
+	}
+
+	/**
+	 * Stops periodic background health checks
+	 */
+	synchronized void stopHealthChecks()
+	{
+		if (healthChecker != null)
+		{
+			healthChecker.shutdownNow();
+			healthChecker = null;
+		}
+	}
+
+	private EndpointState find(AppChainsEndpoint endpoint)
+	{
+		for (EndpointState state : endpoints)
+			if (state.endpoint.equals(endpoint))
+				return state;
+		return null;
+	}
+
+	/**
+	 * Runtime statistics of a single endpoint
+	 */
+	private static class EndpointState
+	{
+		private final AppChainsEndpoint endpoint;
+		private final AtomicInteger outstanding = new AtomicInteger();
+		private final AtomicInteger consecutiveFailures = new AtomicInteger();
+		private final AtomicInteger waiters = new AtomicInteger();
+		private final AdaptiveConcurrencyLimit concurrencyLimit = new AdaptiveConcurrencyLimit();
+		private volatile double latencyMillis;
+		private volatile long unhealthyUntil;
+
+		EndpointState(AppChainsEndpoint endpoint)
+		{
+			this.endpoint = endpoint;
+		}
+
+		/**
+		 * Takes a request slot, the monitor is only used by requests that have to wait
+		 */
+		void acquire(CallHandle handle) throws InterruptedException
+		{
+			if (tryAcquire())
+				return;
+
+			synchronized (this)
+			{
+				waiters.incrementAndGet();
+
+				try
+				{
+					while (!tryAcquire())
+					{
+						if (handle != null)
+						{
+							handle.checkActive();
+							wait(CAPACITY_CHECK_MILLIS);
+						}
+						else
+						{
+							wait();
+						}
+					}
+				}
+				finally
+				{
+					waiters.decrementAndGet();
+				}
+			}
+		}
+
+		private boolean tryAcquire()
+		{
+			while (true)
+			{
+				int current = outstanding.get();
+				if (current >= concurrencyLimit.getLimit())
+					return false;
+				if (outstanding.compareAndSet(current, current + 1))
+					return true;
+			}
+		}
+
+		void release()
+		{
+			outstanding.decrementAndGet();
+
+			// a waiter registers before its last capacity check, so it either sees the freed slot or gets notified
+			if (waiters.get() > 0)
+			{
+				synchronized (this)
+				{
+					notifyAll();
+				}
+			}
+		}
+
+		boolean isAvailable(long now)
+		{
+			return unhealthyUntil <= now;
+		}
+
+		int compareLoad(EndpointState other)
+		{
+			int byOutstanding = Integer.compare(outstanding.get(), other.outstanding.get());
+			return byOutstanding != 0 ? byOutstanding : Double.compare(latencyMillis, other.latencyMillis);
+		}
+
+		void recordLatency(long latencyNanos)
+		{
+			double sample = latencyNanos / 1000000.0;
+			double current = latencyMillis;
+			latencyMillis = current == 0 ? sample : current + LATENCY_EWMA_WEIGHT * (sample - current);
+		}
+
+		void markHealthy()
+		{
+			consecutiveFailures.set(0);
+			unhealthyUntil = 0;
+		}
+
+		void markFailure()
+		{
+			int failures = consecutiveFailures.incrementAndGet();
+			if (failures >= FAILURE_THRESHOLD)
+				unhealthyUntil = System.currentTimeMillis() + cooldown(failures);
+		}
+
+		void markDown()
+		{
+			int failures = Math.max(consecutiveFailures.incrementAndGet(), FAILURE_THRESHOLD);
+			unhealthyUntil = System.currentTimeMillis() + cooldown(failures);
+		}
+
+		private long cooldown(int failures)
+		{
+			int exponent = Math.min(failures - FAILURE_THRESHOLD, 16);
+			return Math.min(BASE_COOLDOWN_MILLIS << exponent, MAX_COOLDOWN_MILLIS);
+		}
+	}
+}
@@ -0,0 +1,212 @@
+package com.sequencing.appchains;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder backed client events. Disabled event types cost a
+ * single flag check per span, until Flight Recorder starts spans cost
+ * a single volatile read
+ */
+class JfrClientEvents extends ClientEvents
+{
+	/**
+	 * Registered event types, null until Flight Recorder is initialized.
+	 * Registering event classes initializes JFR, which would otherwise add
+	 * hundreds of milliseconds to the start of every client
+	 */
+	private volatile EventTypes types;
+
+	Span submitJob()
+	{
+		EventTypes types = getTypes();
+		return types != null && types.submitJob.isEnabled() ? new JfrSpan(new SubmitJobEvent()) : NOOP;
+	}
+
+	Span pollJob()
+	{
+		EventTypes types = getTypes();
+		return types != null && types.pollJob.isEnabled() ? new JfrSpan(new PollJobEvent()) : NOOP;
+	}
+
+	Span pollBatch()
+	{
+		EventTypes types = getTypes();
+		return types != null && types.pollBatch.isEnabled() ? new JfrSpan(new PollBatchEvent()) : NOOP;
+	}
+
+	Span processJob()
+	{
+		EventTypes types = getTypes();
+		return types != null && types.processJob.isEnabled() ? new JfrSpan(new ProcessJobEvent()) : NOOP;
+	}
+
+	Span saveFile()
+	{
+		EventTypes types = getTypes();
+		return types != null && types.saveFile.isEnabled() ? new JfrSpan(new SaveFileEvent()) : NOOP;
+	}
+
+	Span beacon()
+	{
+		EventTypes types = getTypes();
+		return types != null && types.beacon.isEnabled() ? new JfrSpan(new BeaconEvent()) : NOOP;
+	}
+
+	Span httpRequest()
+	{
+		EventTypes types = getTypes();
+		return types != null && types.httpRequest.isEnabled() ? new JfrSpan(new HttpRequestEvent()) : NOOP;
+	}
+
+	Span parseJson()
+	{
+		EventTypes types = getTypes();
+		return types != null && types.parseJson.isEnabled() ? new JfrSpan(new ParseJsonEvent()) : NOOP;
+	}
+
+	private EventTypes getTypes()
+	{
+		EventTypes result = types;
+
+		// recording may be started at any time, i.e. with jcmd JFR.start
+		if (result == null && FlightRecorder.isInitialized())
+			types = result = new EventTypes();
+
+		return result;
+	}
+
+	/**
+	 * Types of client events
+	 */
+	private static class EventTypes
+	{
+		private final EventType submitJob = EventType.getEventType(SubmitJobEvent.class);
+		private final EventType pollJob = EventType.getEventType(PollJobEvent.class);
+		private final EventType pollBatch = EventType.getEventType(PollBatchEvent.class);
+		private final EventType processJob = EventType.getEventType(ProcessJobEvent.class);
+		private final EventType saveFile = EventType.getEventType(SaveFileEvent.class);
+		private final EventType beacon = EventType.getEventType(BeaconEvent.class);
+		private final EventType httpRequest = EventType.getEventType(HttpRequestEvent.class);
+		private final EventType parseJson = EventType.getEventType(ParseJsonEvent.class);
+	}
+
+	/**
+	 * Span recording single JFR event
+	 */
+	private static class JfrSpan implements Span
+	{
+		private final AppChainsEvent event;
+
+		JfrSpan(AppChainsEvent event)
+		{
+			this.event = event;
+			event.begin();
+		}
+
+		public Span jobId(Integer jobId)
+		{
+			event.jobId = jobId == null ? -1 : jobId;
+			return this;
+		}
+
+		public Span appCode(String appCode)
+		{
+			event.appCode = appCode;
+			return this;
+		}
+
+		public Span endpoint(String endpoint)
+		{
+			event.endpoint = endpoint;
+			return this;
+		}
+
+		public Span status(String status)
+		{
+			event.status = status;
+			return this;
+		}
+
+		public Span bytes(long bytes)
+		{
+			event.bytes = bytes;
+			return this;
+		}
+
+		public Span count(int count)
+		{
+			event.count = count;
+			return this;
+		}
+
+		public void commit()
+		{
+			event.commit();
+		}
+	}
+
+	@Category("AppChains")
+	@StackTrace(false)
+	static abstract class AppChainsEvent extends Event
+	{
+		@Label("Job Id")
+		int jobId = -1;
+
+		@Label("AppCode")
+		String appCode;
+
+		@Label("Endpoint")
+		String endpoint;
+
+		@Label("Status")
+		String status;
+
+		@Label("Bytes")
+		@DataAmount
+		long bytes;
+
+		@Label("Count")
+		@Description("Number of jobs or results involved")
+		int count;
+	}
+
+	@Name("com.sequencing.appchains.SubmitJob")
+	@Label("Job Submission")
+	static class SubmitJobEvent extends AppChainsEvent {}
+
+	@Name("com.sequencing.appchains.PollJob")
+	@Label("Job Status Poll")
+	static class PollJobEvent extends AppChainsEvent {}
+
+	@Name("com.sequencing.appchains.PollBatch")
+	@Label("Batch Status Poll")
+	static class PollBatchEvent extends AppChainsEvent {}
+
+	@Name("com.sequencing.appchains.ProcessJob")
+	@Label("Completed Job Processing")
+	static class ProcessJobEvent extends AppChainsEvent {}
+
+	@Name("com.sequencing.appchains.SaveFile")
+	@Label("Report File Download")
+	static class SaveFileEvent extends AppChainsEvent {}
+
+	@Name("com.sequencing.appchains.Beacon")
+	@Label("Beacon Request")
+	static class BeaconEvent extends AppChainsEvent {}
+
+	@Name("com.sequencing.appchains.HttpRequest")
+	@Label("HTTP Request")
+	static class HttpRequestEvent extends AppChainsEvent {}
+
+	@Name("com.sequencing.appchains.ParseJson")
+	@Label("JSON Parsing")
+	static class ParseJsonEvent extends AppChainsEvent {}
+}
@@ -0,0 +1,74 @@
+package com.sequencing.appchains;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Body of a POST request. Streamed bodies are serialized straight onto the
+ * connection's output stream using chunked transfer encoding, so that large
+ * batch requests are never materialized in memory.
+ */
+abstract class JsonRequestBody
+{
+	private final static Charset UTF8 = Charset.forName("UTF-8");
+
+	private volatile long length;
+
+	/**
+	 * Creates body from already serialized json, sent as UTF-8 with known length
+	 * @param json request body
+	 * @return body
+	 */
+	static JsonRequestBody of(final String json)
+	{
+		final byte[] data = json.getBytes(UTF8);
+
+		JsonRequestBody body = new JsonRequestBody()
+		{
+			@Override
+			byte[] getData()
+			{
+				return data;
+			}
+
+			void writeTo(JsonWriter writer) throws IOException
+			{
+				writer.jsonValue(json);
+			}
+		};
+
+		body.setLength(data.length);
+		return body;
+	}
+
+	/**
+	 * @return serialized body encoded as UTF-8, null for streamed bodies
+	 */
+	byte[] getData()
+	{
+		return null;
+	}
+
+	/**
+	 * Writes body, called again when request is resent to another endpoint
+	 * after a connection failure
+	 * @param writer json writer over connection's output stream
+	 * @throws IOException
+	 */
+	abstract void writeTo(JsonWriter writer) throws IOException;
+
+	/**
+	 * @return size of the body in bytes, for streamed bodies number of bytes sent last time
+	 */
+	long getLength()
+	{
+		return length;
+	}
+
+	void setLength(long length)
+	{
+		this.length = length;
+	}
+}
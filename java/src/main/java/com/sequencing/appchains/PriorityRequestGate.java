@@ -0,0 +1,207 @@
+package com.sequencing.appchains;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits number of concurrent HTTP exchanges per runtime. Part of the
+ * capacity is reserved for interactive requests, bulk requests may only use
+ * a share of it, and waiting requests are admitted strictly by priority, so
+ * bulk work yields to interactive work at every request boundary.
+ */
+class PriorityRequestGate
+{
+	/**
+	 * Interval waiting requests re-check their call deadline with in milliseconds
+	 */
+	private final static long DEADLINE_CHECK_MILLIS = 50;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition[] admission = new Condition[RequestPriority.values().length];
+	private final int[] waiting = new int[RequestPriority.values().length];
+	private final int[] running = new int[RequestPriority.values().length];
+
+	private volatile int maxConcurrent;
+	private volatile int interactiveReserve;
+	private volatile int bulkLimit;
+
+	/**
+	 * Bulk limit as configured, bulkLimit is this value clamped to capacity
+	 * not reserved for interactive requests
+	 */
+	private volatile int configuredBulkLimit;
+	private int inUse;
+
+	/**
+	 * @param maxConcurrent maximum number of concurrent requests
+	 * @param interactiveReserve requests reserved for interactive priority
+	 * @param bulkLimit maximum number of concurrent bulk requests
+	 */
+	PriorityRequestGate(int maxConcurrent, int interactiveReserve, int bulkLimit)
+	{
+		for (int i = 0; i < admission.length; i++)
+			admission[i] = lock.newCondition();
+
+		setLimits(maxConcurrent, interactiveReserve, bulkLimit);
+	}
+
+	void setLimits(int maxConcurrent, int interactiveReserve, int bulkLimit)
+	{
+		if (maxConcurrent < 1 || interactiveReserve < 0 || interactiveReserve >= maxConcurrent || bulkLimit < 1)
+			throw new IllegalArgumentException("Invalid request concurrency limits");
+
+		lock.lock();
+		try
+		{
+			this.maxConcurrent = maxConcurrent;
+			this.interactiveReserve = interactiveReserve;
+			this.configuredBulkLimit = bulkLimit;
+			this.bulkLimit = Math.min(bulkLimit, maxConcurrent - interactiveReserve);
+			wakeUp();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Waits until request of given priority may run
+	 * @param priority request priority
+	 * @param handle call handle whose deadline/cancellation aborts waiting, may be null
+	 * @throws InterruptedException
+	 */
+	void acquire(RequestPriority priority, CallHandle handle) throws InterruptedException
+	{
+		int p = priority.ordinal();
+
+		lock.lock();
+		try
+		{
+			waiting[p]++;
+			try
+			{
+				while (!canRun(p))
+				{
+					if (handle != null)
+					{
+						handle.checkActive();
+						admission[p].await(DEADLINE_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+					}
+					else
+					{
+						admission[p].await();
+					}
+				}
+			}
+			finally
+			{
+				waiting[p]--;
+			}
+
+			running[p]++;
+			inUse++;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	void release(RequestPriority priority)
+	{
+		lock.lock();
+		try
+		{
+			running[priority.ordinal()]--;
+			inUse--;
+			wakeUp();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	int getInUse()
+	{
+		lock.lock();
+		try
+		{
+			return inUse;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return number of requests waiting for admission per priority
+	 */
+	int getWaiting(RequestPriority priority)
+	{
+		lock.lock();
+		try
+		{
+			return waiting[priority.ordinal()];
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	int getMaxConcurrent()
+	{
+		return maxConcurrent;
+	}
+
+	int getInteractiveReserve()
+	{
+		return interactiveReserve;
+	}
+
+	/**
+	 * @return bulk limit as configured, may exceed capacity available to bulk requests
+	 */
+	int getBulkLimit()
+	{
+		return configuredBulkLimit;
+	}
+
+	/**
+	 * @return bulk limit in effect
+	 */
+	int getEffectiveBulkLimit()
+	{
+		return bulkLimit;
+	}
+
+	private boolean canRun(int p)
+	{
+		// requests of higher priority waiting for admission go first
+		for (int higher = 0; higher < p; higher++)
+			if (waiting[higher] > 0)
+				return false;
+
+		if (p == RequestPriority.INTERACTIVE.ordinal())
+			return inUse < maxConcurrent;
+
+		if (p == RequestPriority.BULK.ordinal() && running[p] >= bulkLimit)
+			return false;
+
+		return inUse < maxConcurrent - interactiveReserve;
+	}
+
+	private void wakeUp()
+	{
+		for (int p = 0; p < admission.length; p++)
+			if (waiting[p] > 0)
+			{
+				admission[p].signalAll();
+				return;
+			}
+	}
+}
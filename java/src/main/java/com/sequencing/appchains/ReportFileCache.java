@@ -0,0 +1,401 @@
+package com.sequencing.appchains;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Size-bounded on-disk cache of report files shared by all clients (and
+ * processes) using the same directory. Content is stored once per SHA-256
+ * hash under {@code blobs/}; {@code ids/} maps file identifiers to content
+ * hashes. New entries are written to {@code tmp/} and atomically moved in
+ * place, least recently used blobs are evicted when the cache grows over
+ * its limit.
+ *
+ * A lookup by identifier skips the server, so identifiers must include
+ * everything the server authorizes the download by (host and tenant
+ * credentials), otherwise a shared directory leaks files across tenants.
+ */
+public class ReportFileCache
+{
+	private final static Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Source of file content for cache misses
+	 */
+	public interface StreamSource
+	{
+		InputStream open() throws IOException;
+	}
+
+	private final Path blobs;
+	private final Path ids;
+	private final Path tmp;
+	private final long maxBytes;
+	private final AtomicLong size = new AtomicLong();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final ConcurrentMap<String, Object> keyLocks = new ConcurrentHashMap<String, Object>();
+
+	/**
+	 * @param directory cache root directory
+	 * @param maxBytes maximum total size of cached files
+	 * @throws IOException
+	 */
+	public ReportFileCache(File directory, long maxBytes) throws IOException
+	{
+		if (maxBytes <= 0)
+			throw new IllegalArgumentException("Cache size limit should be positive");
+
+		Path root = directory.toPath();
+		this.blobs = Files.createDirectories(root.resolve("blobs"));
+		this.ids = Files.createDirectories(root.resolve("ids"));
+		this.tmp = Files.createDirectories(root.resolve("tmp"));
+		this.maxBytes = maxBytes;
+
+		for (Path blob : listBlobs())
+			size.addAndGet(Files.size(blob));
+	}
+
+	/**
+	 * @return total size of cached files as seen by this instance
+	 */
+	public long getSize()
+	{
+		return size.get();
+	}
+
+	public long getMaxSize()
+	{
+		return maxBytes;
+	}
+
+	/**
+	 * @return number of lookups served from the cache
+	 */
+	public long getHits()
+	{
+		return hits.get();
+	}
+
+	/**
+	 * @return number of lookups that downloaded the file
+	 */
+	public long getMisses()
+	{
+		return misses.get();
+	}
+
+	/**
+	 * Returns path of the cached file, downloading it on cache miss
+	 * @param fileKey file identifier, unique per host and tenant
+	 * @param source remote content source
+	 * @return path to read-only cached file
+	 * @throws IOException
+	 */
+	public Path fetch(String fileKey, StreamSource source) throws IOException
+	{
+		Path cached = lookup(fileKey);
+		if (cached != null)
+		{
+			hits.incrementAndGet();
+			return cached;
+		}
+
+		// concurrent misses for the same file within this process download it once
+		Object lock = keyLocks.get(fileKey);
+		if (lock == null)
+		{
+			Object created = new Object();
+			lock = keyLocks.putIfAbsent(fileKey, created);
+			if (lock == null)
+				lock = created;
+		}
+
+		synchronized (lock)
+		{
+			try
+			{
+				cached = lookup(fileKey);
+				if (cached != null)
+				{
+					hits.incrementAndGet();
+					return cached;
+				}
+
+				misses.incrementAndGet();
+				return publish(fileKey, source);
+			}
+			finally
+			{
+				keyLocks.remove(fileKey, lock);
+			}
+		}
+	}
+
+	/**
+	 * Places cached file at target location, using hard link when the
+	 * file system allows it and copying otherwise
+	 * @param fileKey file identifier
+	 * @param source remote content source
+	 * @param target target file path
+	 * @return file size
+	 * @throws IOException
+	 */
+	public long copyTo(String fileKey, StreamSource source, Path target) throws IOException
+	{
+		Path cached = fetch(fileKey, source);
+		Path parent = target.toAbsolutePath().getParent();
+		if (parent != null)
+			Files.createDirectories(parent);
+
+		Files.deleteIfExists(target);
+
+		try
+		{
+			Files.createLink(target, cached);
+		}
+		catch (IOException e)
+		{
+			copyFallback(cached, target);
+		}
+		catch (UnsupportedOperationException e)
+		{
+			copyFallback(cached, target);
+		}
+
+		return Files.size(target);
+	}
+
+	/**
+	 * Maps cached file into memory
+	 * @param fileKey file identifier
+	 * @param source remote content source
+	 * @return read-only buffer with file content
+	 * @throws IOException
+	 */
+	public ByteBuffer map(String fileKey, StreamSource source) throws IOException
+	{
+		FileChannel channel = FileChannel.open(fetch(fileKey, source), StandardOpenOption.READ);
+
+		try
+		{
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		finally
+		{
+			channel.close();
+		}
+	}
+
+	private void copyFallback(Path cached, Path target) throws IOException
+	{
+		Files.copy(cached, target, StandardCopyOption.REPLACE_EXISTING);
+		target.toFile().setWritable(true);
+	}
+
+	/**
+	 * Resolves file identifier to cached blob and marks it as recently used
+	 */
+	private Path lookup(String fileKey) throws IOException
+	{
+		Path index = ids.resolve(indexName(fileKey));
+		if (!Files.exists(index))
+			return null;
+
+		Path blob;
+		try
+		{
+			blob = blobs.resolve(new String(Files.readAllBytes(index), UTF8).trim());
+			Files.setLastModifiedTime(blob, FileTime.fromMillis(System.currentTimeMillis()));
+			return blob;
+		}
+		catch (NoSuchFileException e)
+		{
+			// blob was evicted, possibly by another process
+			return null;
+		}
+	}
+
+	/**
+	 * Downloads file into temporary location and atomically publishes it
+	 */
+	private Path publish(String fileKey, StreamSource source) throws IOException
+	{
+		Path download = tmp.resolve(UUID.randomUUID().toString());
+		MessageDigest digest = sha256();
+		long bytes;
+
+		InputStream stream = new DigestInputStream(source.open(), digest);
+		try
+		{
+			bytes = Files.copy(stream, download);
+		}
+		catch (IOException e)
+		{
+			Files.deleteIfExists(download);
+			throw e;
+		}
+		finally
+		{
+			stream.close();
+		}
+
+		String hash = toHex(digest.digest());
+		Path blob = blobs.resolve(hash);
+
+		if (Files.exists(blob))
+		{
+			// byte-identical content is already cached under another identifier
+			Files.delete(download);
+			Files.setLastModifiedTime(blob, FileTime.fromMillis(System.currentTimeMillis()));
+		}
+		else
+		{
+			download.toFile().setReadOnly();
+			move(download, blob);
+			size.addAndGet(bytes);
+		}
+
+		Path indexTmp = tmp.resolve(UUID.randomUUID().toString());
+		Files.write(indexTmp, hash.getBytes(UTF8));
+		move(indexTmp, ids.resolve(indexName(fileKey)));
+
+		evict(blob);
+		return blob;
+	}
+
+	/**
+	 * Removes least recently used blobs until cache fits its limit
+	 * @param keep blob that has just been published
+	 */
+	private synchronized void evict(Path keep) throws IOException
+	{
+		if (size.get() <= maxBytes)
+			return;
+
+		List<Path> candidates = listBlobs();
+		final ConcurrentMap<Path, Long> accessed = new ConcurrentHashMap<Path, Long>();
+		for (Path blob : candidates)
+			accessed.put(blob, lastAccess(blob));
+
+		Collections.sort(candidates, new Comparator<Path>()
+		{
+			public int compare(Path a, Path b)
+			{
+				return Long.compare(accessed.get(a), accessed.get(b));
+			}
+		});
+
+		for (Path blob : candidates)
+		{
+			if (size.get() <= maxBytes)
+				break;
+			if (blob.equals(keep))
+				continue;
+
+			try
+			{
+				long blobSize = Files.size(blob);
+				// index entries pointing to removed blob are treated as misses on lookup
+				Files.delete(blob);
+				size.addAndGet(-blobSize);
+			}
+			catch (NoSuchFileException e) {}
+		}
+	}
+
+	private static long lastAccess(Path blob)
+	{
+		try
+		{
+			return Files.getLastModifiedTime(blob).toMillis();
+		}
+		catch (IOException e)
+		{
+			return 0;
+		}
+	}
+
+	private List<Path> listBlobs() throws IOException
+	{
+		List<Path> result = new ArrayList<Path>();
+		DirectoryStream<Path> stream = Files.newDirectoryStream(blobs);
+
+		try
+		{
+			for (Path blob : stream)
+				result.add(blob);
+		}
+		finally
+		{
+			stream.close();
+		}
+
+		return result;
+	}
+
+	private static void move(Path source, Path target) throws IOException
+	{
+		try
+		{
+			Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		}
+		catch (AtomicMoveNotSupportedException e)
+		{
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * File identifiers may contain characters not allowed in file names
+	 */
+	private static String indexName(String fileKey)
+	{
+		return hash(fileKey);
+	}
+
+	/**
+	 * @return hex encoded SHA-256 hash of the text, i.e. to put credentials into file identifiers
+	 */
+	static String hash(String text)
+	{
+		return toHex(sha256().digest(String.valueOf(text).getBytes(UTF8)));
+	}
+
+	private static MessageDigest sha256()
+	{
+		try
+		{
+			return MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new RuntimeException("SHA-256 is not supported by the JVM", e);
+		}
+	}
+
+	private static String toHex(byte[] data)
+	{
+		StringBuilder result = new StringBuilder(data.length * 2);
+		for (byte b : data)
+			result.append(String.format("%02x", b));
+		return result.toString();
+	}
+}
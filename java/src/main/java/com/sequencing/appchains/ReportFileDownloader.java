@@ -0,0 +1,279 @@
+package com.sequencing.appchains;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sequencing.appchains.AppChains.FileResultValue;
+import com.sequencing.appchains.AppChains.Report;
+import com.sequencing.appchains.AppChains.Result;
+import com.sequencing.appchains.AppChains.ResultType;
+
+/**
+ * Downloads every file result of a report or a batch of reports with bounded
+ * parallelism and a per-host connection limit
+ */
+public class ReportFileDownloader
+{
+	/**
+	 * Receives progress updates, called from download threads
+	 */
+	public interface ProgressListener
+	{
+		void onProgress(int completed, int failed, int total, long bytes);
+	}
+
+	private final int parallelism;
+	private final int perHostLimit;
+	private final RequestPriority priority;
+
+	/**
+	 * @param parallelism maximum number of concurrent downloads
+	 * @param perHostLimit maximum number of concurrent downloads from a single host
+	 */
+	public ReportFileDownloader(int parallelism, int perHostLimit)
+	{
+		this(parallelism, perHostLimit, RequestPriority.NORMAL);
+	}
+
+	/**
+	 * @param parallelism maximum number of concurrent downloads
+	 * @param perHostLimit maximum number of concurrent downloads from a single host
+	 * @param priority priority downloads compete for client's request capacity with,
+	 *                 bulk downloads yield to other requests between files
+	 */
+	public ReportFileDownloader(int parallelism, int perHostLimit, RequestPriority priority)
+	{
+		if (parallelism < 1 || perHostLimit < 1)
+			throw new IllegalArgumentException("Download limits should be positive");
+
+		if (priority == null)
+			throw new IllegalArgumentException("Priority should be specified");
+
+		this.parallelism = parallelism;
+		this.perHostLimit = perHostLimit;
+		this.priority = priority;
+	}
+
+	/**
+	 * Downloads all files of the report into target directory
+	 * @param report report with file results
+	 * @param targetDir directory to save files to
+	 * @param listener progress listener, may be null
+	 * @return download summary
+	 * @throws InterruptedException
+	 */
+	public DownloadSummary downloadAll(Report report, File targetDir, ProgressListener listener)
+			throws InterruptedException
+	{
+		List<Download> downloads = new ArrayList<Download>();
+		collect(report, targetDir, downloads);
+		return run(downloads, listener);
+	}
+
+	/**
+	 * Downloads all files of batch reports, files of each report are saved
+	 * into a subdirectory named after the batch key (chain identifier)
+	 * @param reports batch results
+	 * @param targetDir directory to save files to
+	 * @param listener progress listener, may be null
+	 * @return download summary
+	 * @throws InterruptedException
+	 */
+	public DownloadSummary downloadAll(Map<String, Report> reports, File targetDir, ProgressListener listener)
+			throws InterruptedException
+	{
+		List<Download> downloads = new ArrayList<Download>();
+		for (Map.Entry<String, Report> report : reports.entrySet())
+			collect(report.getValue(), new File(targetDir, report.getKey()), downloads);
+		return run(downloads, listener);
+	}
+
+	private void collect(Report report, File targetDir, List<Download> downloads)
+	{
+		for (Result result : report.getResults())
+			if (result.getValue().getType() == ResultType.FILE)
+			{
+				FileResultValue file = (FileResultValue) result.getValue();
+				downloads.add(new Download(file, new File(targetDir, file.getName())));
+			}
+	}
+
+	private DownloadSummary run(List<Download> downloads, final ProgressListener listener) throws InterruptedException
+	{
+		final int total = downloads.size();
+		final DownloadSummary summary = new DownloadSummary(total);
+
+		if (total == 0)
+			return summary;
+
+		final ConcurrentMap<String, Semaphore> hostPermits = new ConcurrentHashMap<String, Semaphore>();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, total));
+
+		try
+		{
+			// interleave hosts so that a host at its limit doesn't block workers other hosts could use
+			for (final Download download : interleaveByHost(downloads))
+			{
+				executor.execute(new Runnable()
+				{
+					public void run()
+					{
+						Semaphore permits = permitsFor(hostPermits, download.file.getUrl().getAuthority());
+						permits.acquireUninterruptibly();
+
+						try
+						{
+							summary.succeeded(download.file.download(download.target.getPath(), priority));
+						}
+						catch (Exception e)
+						{
+							summary.failed(download.target, e);
+						}
+						finally
+						{
+							permits.release();
+						}
+
+						if (listener != null)
+							listener.onProgress(summary.getCompleted(), summary.getFailed().size(), total, summary.getBytes());
+					}
+				});
+			}
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+
+		try
+		{
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		}
+		catch (InterruptedException e)
+		{
+			executor.shutdownNow();
+			throw e;
+		}
+
+		return summary;
+	}
+
+	private Semaphore permitsFor(ConcurrentMap<String, Semaphore> hostPermits, String host)
+	{
+		Semaphore permits = hostPermits.get(host);
+
+		if (permits == null)
+		{
+			Semaphore created = new Semaphore(perHostLimit);
+			permits = hostPermits.putIfAbsent(host, created);
+			if (permits == null)
+				permits = created;
+		}
+
+		return permits;
+	}
+
+	private static List<Download> interleaveByHost(List<Download> downloads)
+	{
+		Map<String, LinkedList<Download>> byHost = new LinkedHashMap<String, LinkedList<Download>>();
+
+		for (Download download : downloads)
+		{
+			String host = download.file.getUrl().getAuthority();
+			if (!byHost.containsKey(host))
+				byHost.put(host, new LinkedList<Download>());
+			byHost.get(host).add(download);
+		}
+
+		List<Download> result = new ArrayList<Download>(downloads.size());
+
+		while (result.size() < downloads.size())
+			for (LinkedList<Download> queue : byHost.values())
+				if (!queue.isEmpty())
+					result.add(queue.removeFirst());
+
+		return result;
+	}
+
+	/**
+	 * Class that represents aggregated download results
+	 */
+	public static class DownloadSummary
+	{
+		private final int total;
+		private final AtomicInteger completed = new AtomicInteger();
+		private final AtomicLong bytes = new AtomicLong();
+		private final Map<File, Exception> failed = new ConcurrentHashMap<File, Exception>();
+
+		DownloadSummary(int total)
+		{
+			this.total = total;
+		}
+
+		void succeeded(long fileBytes)
+		{
+			bytes.addAndGet(fileBytes);
+			completed.incrementAndGet();
+		}
+
+		void failed(File target, Exception e)
+		{
+			failed.put(target, e);
+			completed.incrementAndGet();
+		}
+
+		public int getTotal()
+		{
+			return total;
+		}
+
+		/**
+		 * @return number of finished downloads, both succeeded and failed
+		 */
+		public int getCompleted()
+		{
+			return completed.get();
+		}
+
+		public long getBytes()
+		{
+			return bytes.get();
+		}
+
+		/**
+		 * @return failed downloads keyed by target file
+		 */
+		public Map<File, Exception> getFailed()
+		{
+			return failed;
+		}
+
+		public boolean isSucceeded()
+		{
+			return failed.isEmpty() && completed.get() == total;
+		}
+	}
+
+	/**
+	 * Single file to download
+	 */
+	private static class Download
+	{
+		private final FileResultValue file;
+		private final File target;
+
+		Download(FileResultValue file, File target)
+		{
+			this.file = file;
+			this.target = target;
+		}
+	}
+}
@@ -0,0 +1,96 @@
+package com.sequencing.appchains;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Single report request of a cohort run: chain to run, datasource to run it
+ * on and additional chain parameters. Requests are identified by a request
+ * identifier, so the same chain may appear any number of times in a cohort.
+ *
+ * @see AppChains#getReportCohort(String, Iterable)
+ */
+public class ReportRequest
+{
+	/**
+	 * Separator of chain and datasource identifiers in composite request identifiers
+	 */
+	public final static String REQUEST_ID_SEPARATOR = "/";
+
+	private final String requestId;
+	private final String chainId;
+	private final String datasourceId;
+	private final Map<String, String> parameters = new LinkedHashMap<String, String>();
+
+	/**
+	 * Creates request identified by composite identifier chainId/datasourceId
+	 * @param chainId chain identifier
+	 * @param datasourceId resource with data to use for report generation
+	 */
+	public ReportRequest(String chainId, String datasourceId)
+	{
+		this(chainId + REQUEST_ID_SEPARATOR + datasourceId, chainId, datasourceId);
+	}
+
+	/**
+	 * Creates request with explicit identifier, i.e. to run the same chain on
+	 * the same datasource with different parameters
+	 * @param requestId identifier results are keyed by, unique within a cohort
+	 * @param chainId chain identifier
+	 * @param datasourceId resource with data to use for report generation
+	 */
+	public ReportRequest(String requestId, String chainId, String datasourceId)
+	{
+		if (requestId == null || chainId == null || datasourceId == null)
+			throw new IllegalArgumentException("Request, chain and datasource identifiers should be specified");
+
+		this.requestId = requestId;
+		this.chainId = chainId;
+		this.datasourceId = datasourceId;
+	}
+
+	/**
+	 * Adds chain parameter sent along with the datasource
+	 * @param name parameter name
+	 * @param value parameter value
+	 * @return this request
+	 */
+	public ReportRequest withParameter(String name, String value)
+	{
+		if (name == null || name.equals("dataSourceId"))
+			throw new IllegalArgumentException(String.format("Invalid parameter name %s", name));
+
+		parameters.put(name, value);
+		return this;
+	}
+
+	public String getRequestId()
+	{
+		return requestId;
+	}
+
+	public String getChainId()
+	{
+		return chainId;
+	}
+
+	public String getDatasourceId()
+	{
+		return datasourceId;
+	}
+
+	/**
+	 * @return additional chain parameters
+	 */
+	public Map<String, String> getParameters()
+	{
+		return Collections.unmodifiableMap(parameters);
+	}
+
+	@Override
+	public String toString()
+	{
+		return requestId;
+	}
+}
@@ -0,0 +1,188 @@
+package com.sequencing.appchains;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decides when idempotent requests should be hedged. Keeps a window of recent
+ * latencies per remote endpoint path and a budget that caps how many duplicate
+ * requests may be sent relative to the total number of requests. Attempts run
+ * on a bounded pool; requests it can't take are sent without hedging.
+ */
+class RequestHedger
+{
+	/**
+	 * Number of latency samples kept per endpoint path
+	 */
+	private final static int WINDOW_SIZE = 256;
+
+	/**
+	 * Samples required before endpoint path is hedged at all
+	 */
+	private final static int MIN_SAMPLES = 20;
+
+	/**
+	 * Maximum number of hedges that may be saved up while traffic is fast
+	 */
+	private final static double MAX_BUDGET = 10;
+
+	/**
+	 * Maximum number of threads sending hedged requests and their duplicates
+	 */
+	private final static int MAX_THREADS = 64;
+
+	/**
+	 * Time idle hedging threads are kept for, in seconds
+	 */
+	private final static long THREAD_KEEP_ALIVE_SECONDS = 60;
+
+	private final double percentile;
+	private final double budgetRatio;
+	private final ConcurrentMap<String, LatencyWindow> windows = new ConcurrentHashMap<String, LatencyWindow>();
+	private final ExecutorService executor;
+
+	private double budget;
+
+	/**
+	 * @param percentile latency percentile after which request is hedged (i.e. 0.95)
+	 * @param budgetRatio maximum share of requests that may be hedged (i.e. 0.05)
+	 */
+	RequestHedger(double percentile, double budgetRatio)
+	{
+		if (percentile <= 0 || percentile >= 1)
+			throw new IllegalArgumentException("Hedging percentile should be between 0 and 1");
+		if (budgetRatio <= 0 || budgetRatio > 1)
+			throw new IllegalArgumentException("Hedging budget ratio should be between 0 and 1");
+
+		this.percentile = percentile;
+		this.budgetRatio = budgetRatio;
+		this.executor = new ThreadPoolExecutor(0, MAX_THREADS, THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+				new SynchronousQueue<Runnable>(), new ThreadFactory()
+		{
+			private final AtomicInteger counter = new AtomicInteger();
+
+			public Thread newThread(Runnable r)
+			{
+				Thread thread = new Thread(r, "appchains-hedge-" + counter.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * @return executor of request attempts, rejects attempts once all threads are busy
+	 */
+	ExecutorService getExecutor()
+	{
+		return executor;
+	}
+
+	/**
+	 * Returns time after which request to the path should be hedged
+	 * @param path endpoint path
+	 * @return delay in milliseconds or -1 if there is not enough data yet
+	 */
+	long getHedgeDelayMillis(String path)
+	{
+		LatencyWindow window = windows.get(path);
+		return window == null ? -1 : window.percentileMillis(percentile);
+	}
+
+	/**
+	 * Records completed request latency and earns hedging budget
+	 */
+	void recordLatency(String path, long latencyNanos)
+	{
+		LatencyWindow window = windows.get(path);
+
+		if (window == null)
+		{
+			LatencyWindow created = new LatencyWindow();
+			window = windows.putIfAbsent(path, created);
+			if (window == null)
+				window = created;
+		}
+
+		window.add(TimeUnit.NANOSECONDS.toMillis(latencyNanos));
+
+		synchronized (this)
+		{
+			budget = Math.min(budget + budgetRatio, MAX_BUDGET);
+		}
+	}
+
+	/**
+	 * Takes one hedge from the budget
+	 * @return true if request may be hedged
+	 */
+	synchronized boolean tryAcquireHedge()
+	{
+		if (budget < 1)
+			return false;
+
+		budget -= 1;
+		return true;
+	}
+
+	void shutdown()
+	{
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Idempotent request that may be sent more than once
+	 */
+	interface Request<T>
+	{
+		/**
+		 * Sends request to given URL
+		 * @param url URL of the original request or of the same resource on another endpoint
+		 * @return response
+		 * @throws IOException
+		 */
+		T send(URL url) throws IOException;
+
+		/**
+		 * Releases response of an attempt that lost to another one
+		 * @param response response to release
+		 */
+		void discard(T response);
+	}
+
+	/**
+	 * Ring buffer of recent latencies
+	 */
+	private static class LatencyWindow
+	{
+		private final long[] samples = new long[WINDOW_SIZE];
+		private int count;
+		private int next;
+
+		synchronized void add(long latencyMillis)
+		{
+			samples[next] = latencyMillis;
+			next = (next + 1) % samples.length;
+			count = Math.min(count + 1, samples.length);
+		}
+
+		synchronized long percentileMillis(double percentile)
+		{
+			if (count < MIN_SAMPLES)
+				return -1;
+
+			long[] sorted = Arrays.copyOf(samples, count);
+			Arrays.sort(sorted);
+			return sorted[Math.min((int) Math.ceil(percentile * count) - 1, count - 1)];
+		}
+	}
+}
@@ -0,0 +1,24 @@
+package com.sequencing.appchains;
+
+/**
+ * Enumerates priority classes of client requests. Higher priority requests
+ * are admitted first when the client runs at its concurrency limit
+ */
+public enum RequestPriority
+{
+	/**
+	 * User-facing calls, may use all capacity including reserved one
+	 */
+	INTERACTIVE,
+
+	/**
+	 * Default priority
+	 */
+	NORMAL,
+
+	/**
+	 * Background cohort runs, limited to a share of capacity and yielding
+	 * to other classes between requests
+	 */
+	BULK
+}
@@ -0,0 +1,215 @@
+package com.sequencing.appchains;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * MBean exposing state and tunables of a single runtime
+ */
+class RuntimeManagement implements AppChainsRuntimeMXBean
+{
+	private final AppChainsRuntime runtime;
+
+	RuntimeManagement(AppChainsRuntime runtime)
+	{
+		this.runtime = runtime;
+	}
+
+	public Map<String, Integer> getInFlightJobsByStatus()
+	{
+		Map<String, Integer> result = new HashMap<String, Integer>();
+
+		for (String status : runtime.jobStatuses.values())
+		{
+			Integer count = result.get(status);
+			result.put(status, count == null ? 1 : count + 1);
+		}
+
+		return result;
+	}
+
+	public int getPolledJobCount()
+	{
+		SharedJobPoller poller = runtime.getPoller();
+		return poller == null ? 0 : poller.getPendingCount();
+	}
+
+	public int getPollingTenantCount()
+	{
+		SharedJobPoller poller = runtime.getPoller();
+		return poller == null ? 0 : poller.getTenantCount();
+	}
+
+	public int getRequestsInFlight()
+	{
+		return runtime.requestGate.getInUse();
+	}
+
+	public Map<String, Integer> getRequestsWaitingByPriority()
+	{
+		Map<String, Integer> result = new LinkedHashMap<String, Integer>();
+		for (RequestPriority priority : RequestPriority.values())
+			result.put(priority.name(), runtime.requestGate.getWaiting(priority));
+		return result;
+	}
+
+	public Map<String, Integer> getEndpointOutstandingRequests()
+	{
+		return runtime.endpointPool.getOutstandingRequests();
+	}
+
+	public Map<String, Double> getEndpointLatencyMillis()
+	{
+		return runtime.endpointPool.getLatencyMillis();
+	}
+
+	public Map<String, Integer> getEndpointConcurrencyLimits()
+	{
+		return runtime.endpointPool.getConcurrencyLimits();
+	}
+
+	public List<String> getUnhealthyEndpoints()
+	{
+		return runtime.endpointPool.getUnhealthyEndpoints();
+	}
+
+	public boolean isHedgingEnabled()
+	{
+		return runtime.hedger != null;
+	}
+
+	public long getFileCacheSize()
+	{
+		ReportFileCache cache = runtime.fileCache;
+		return cache == null ? -1 : cache.getSize();
+	}
+
+	public long getFileCacheMaxSize()
+	{
+		ReportFileCache cache = runtime.fileCache;
+		return cache == null ? -1 : cache.getMaxSize();
+	}
+
+	public long getFileCacheHits()
+	{
+		ReportFileCache cache = runtime.fileCache;
+		return cache == null ? 0 : cache.getHits();
+	}
+
+	public long getFileCacheMisses()
+	{
+		ReportFileCache cache = runtime.fileCache;
+		return cache == null ? 0 : cache.getMisses();
+	}
+
+	public long getPollIntervalMillis()
+	{
+		return runtime.getPollIntervalMillis();
+	}
+
+	public void setPollIntervalMillis(long pollIntervalMillis)
+	{
+		runtime.setPollIntervalMillis(pollIntervalMillis);
+	}
+
+	public int getBatchPollSize()
+	{
+		return runtime.getBatchPollSize();
+	}
+
+	public void setBatchPollSize(int batchPollSize)
+	{
+		runtime.setBatchPollSize(batchPollSize);
+	}
+
+	public int getBatchSubmitSize()
+	{
+		return runtime.getBatchSubmitSize();
+	}
+
+	public void setBatchSubmitSize(int batchSubmitSize)
+	{
+		runtime.setBatchSubmitSize(batchSubmitSize);
+	}
+
+	public int getPollJobsPerTenant()
+	{
+		SharedJobPoller poller = runtime.getPoller();
+		return poller == null ? 0 : poller.getMaxJobsPerTenant();
+	}
+
+	public void setPollJobsPerTenant(int pollJobsPerTenant)
+	{
+		if (pollJobsPerTenant < 1)
+			throw new IllegalArgumentException("Jobs per tenant should be positive");
+
+		requirePoller().setMaxJobsPerTenant(pollJobsPerTenant);
+	}
+
+	public int getPollJobsPerRound()
+	{
+		SharedJobPoller poller = runtime.getPoller();
+		return poller == null ? 0 : poller.getMaxJobsPerTick();
+	}
+
+	public void setPollJobsPerRound(int pollJobsPerRound)
+	{
+		if (pollJobsPerRound < 1)
+			throw new IllegalArgumentException("Jobs per round should be positive");
+
+		requirePoller().setMaxJobsPerTick(pollJobsPerRound);
+	}
+
+	public int getMaxConcurrentRequests()
+	{
+		return runtime.requestGate.getMaxConcurrent();
+	}
+
+	public void setMaxConcurrentRequests(int maxConcurrentRequests)
+	{
+		PriorityRequestGate gate = runtime.requestGate;
+		runtime.setRequestLimits(maxConcurrentRequests,
+				Math.min(gate.getInteractiveReserve(), maxConcurrentRequests - 1), gate.getBulkLimit());
+	}
+
+	public int getInteractiveReserve()
+	{
+		return runtime.requestGate.getInteractiveReserve();
+	}
+
+	public void setInteractiveReserve(int interactiveReserve)
+	{
+		PriorityRequestGate gate = runtime.requestGate;
+		runtime.setRequestLimits(gate.getMaxConcurrent(), interactiveReserve, gate.getBulkLimit());
+	}
+
+	public int getBulkRequestLimit()
+	{
+		return runtime.requestGate.getBulkLimit();
+	}
+
+	public int getEffectiveBulkRequestLimit()
+	{
+		return runtime.requestGate.getEffectiveBulkLimit();
+	}
+
+	public void setBulkRequestLimit(int bulkRequestLimit)
+	{
+		PriorityRequestGate gate = runtime.requestGate;
+		runtime.setRequestLimits(gate.getMaxConcurrent(), gate.getInteractiveReserve(), bulkRequestLimit);
+	}
+
+	/**
+	 * Settings of the shared poller don't apply to standalone runtimes,
+	 * rejecting them keeps JMX clients from assuming they took effect
+	 */
+	private SharedJobPoller requirePoller()
+	{
+		SharedJobPoller poller = runtime.getPoller();
+		if (poller == null)
+			throw new IllegalStateException("Runtime polls jobs without shared poller");
+		return poller;
+	}
+}
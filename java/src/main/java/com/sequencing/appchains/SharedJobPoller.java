@@ -0,0 +1,608 @@
+package com.sequencing.appchains;
+
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.sequencing.appchains.AppChains.RawReportJobResult;
+
+/**
+ * Polls status of pending jobs of all clients sharing a runtime. Every tick
+ * each client (tenant) first gets a fair share of a global per-tick budget:
+ * one GetAppResultsBatch chunk covering at most a fixed number of its jobs,
+ * tenants served round-robin, so a tenant with a huge batch gets the same
+ * share as an interactive one. Budget the fair shares leave unused goes,
+ * chunk by chunk, to tenants that still have jobs, so a tenant polling
+ * alone gets the whole budget. Within the budget tenants with higher
+ * priority jobs are served first, and each tenant's higher priority jobs
+ * are polled first. Rounds don't wait for polls to finish; a tenant whose
+ * chunks of a previous round are still running sits the round out, so a
+ * slow tenant never holds up others.
+ */
+class SharedJobPoller
+{
+	/**
+	 * Default jobs polled per tenant in a single round
+	 */
+	private final static int DEFAULT_MAX_JOBS_PER_TENANT = 50;
+
+	/**
+	 * Default jobs polled across all tenants in a single round
+	 */
+	private final static int DEFAULT_MAX_JOBS_PER_TICK = 2000;
+
+	/**
+	 * Threads sending status requests
+	 */
+	private final static int POLL_THREADS = 4;
+
+	/**
+	 * Consecutive failed polls after which tenant's polled jobs fail
+	 */
+	private final static int MAX_CONSECUTIVE_FAILURES = 5;
+
+	private final ConcurrentMap<AppChains, Tenant> tenants = new ConcurrentHashMap<AppChains, Tenant>();
+
+	private volatile long tickMillis;
+	private volatile int maxJobsPerTenant = DEFAULT_MAX_JOBS_PER_TENANT;
+	private volatile int maxJobsPerTick = DEFAULT_MAX_JOBS_PER_TICK;
+
+	private ScheduledExecutorService scheduler;
+	private ScheduledFuture<?> nextTick;
+	private ExecutorService pollExecutor;
+	private int rotation;
+	private boolean shutdown;
+
+	/**
+	 * @param tickMillis interval between polling rounds in milliseconds
+	 */
+	SharedJobPoller(long tickMillis)
+	{
+		this.tickMillis = tickMillis;
+	}
+
+	long getTickMillis()
+	{
+		return tickMillis;
+	}
+
+	/**
+	 * Changes interval between polling rounds, a pending round is rescheduled
+	 */
+	synchronized void setTickMillis(long tickMillis)
+	{
+		this.tickMillis = tickMillis;
+
+		// a running round schedules the next one with the new interval itself
+		if (nextTick != null && nextTick.cancel(false))
+			scheduleTick();
+	}
+
+	int getMaxJobsPerTenant()
+	{
+		return maxJobsPerTenant;
+	}
+
+	void setMaxJobsPerTenant(int maxJobsPerTenant)
+	{
+		this.maxJobsPerTenant = maxJobsPerTenant;
+	}
+
+	int getMaxJobsPerTick()
+	{
+		return maxJobsPerTick;
+	}
+
+	void setMaxJobsPerTick(int maxJobsPerTick)
+	{
+		this.maxJobsPerTick = maxJobsPerTick;
+	}
+
+	/**
+	 * @return number of clients with pending jobs
+	 */
+	int getTenantCount()
+	{
+		return tenants.size();
+	}
+
+	/**
+	 * Starts tracking job, returned future completes once job reaches terminal state
+	 * @param client client owning the job
+	 * @param jobId job identifier
+	 * @param priority priority of the call waiting for the job
+	 * @return future job result
+	 */
+	Future<RawReportJobResult> register(AppChains client, Integer jobId, RequestPriority priority)
+	{
+		ensureStarted();
+
+		while (true)
+		{
+			Tenant tenant = tenants.get(client);
+			if (tenant == null)
+			{
+				Tenant created = new Tenant(client);
+				tenant = tenants.putIfAbsent(client, created);
+				if (tenant == null)
+					tenant = created;
+			}
+
+			// tick() may be dropping the tenant as empty right now, the job then goes to a new one
+			CompletableFuture<RawReportJobResult> future = tenant.add(jobId, priority);
+			if (future != null)
+				return future;
+
+			Thread.yield();
+		}
+	}
+
+	/**
+	 * Stops tracking job, i.e. when caller gave up waiting
+	 */
+	void unregister(AppChains client, Integer jobId)
+	{
+		Tenant tenant = tenants.get(client);
+		if (tenant != null)
+			tenant.remove(jobId);
+	}
+
+	/**
+	 * @return number of jobs being polled
+	 */
+	int getPendingCount()
+	{
+		int count = 0;
+		for (Tenant tenant : tenants.values())
+			count += tenant.size();
+		return count;
+	}
+
+	synchronized void shutdown()
+	{
+		shutdown = true;
+
+		if (scheduler != null)
+		{
+			scheduler.shutdownNow();
+			pollExecutor.shutdownNow();
+		}
+
+		for (Tenant tenant : tenants.values())
+			tenant.failAll(new CancellationException("Appchains runtime was closed"));
+		tenants.clear();
+	}
+
+	private synchronized void ensureStarted()
+	{
+		if (shutdown)
+			throw new IllegalStateException("Appchains runtime is closed");
+
+		if (scheduler != null)
+			return;
+
+		scheduler = Executors.newSingleThreadScheduledExecutor(daemonThreads("appchains-poller"));
+		pollExecutor = Executors.newFixedThreadPool(POLL_THREADS, daemonThreads("appchains-poll"));
+		scheduleTick();
+	}
+
+	/**
+	 * Schedules next polling round, rounds are rescheduled one by one so that
+	 * interval changes apply without restarting the poller
+	 */
+	private synchronized void scheduleTick()
+	{
+		if (shutdown)
+			return;
+
+		nextTick = scheduler.schedule(new Runnable()
+		{
+			public void run()
+			{
+				try
+				{
+					tick();
+				}
+				finally
+				{
+					scheduleTick();
+				}
+			}
+		}, tickMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Runs single polling round, polls are sent asynchronously
+	 */
+	private void tick()
+	{
+		List<Tenant> tenantList = new ArrayList<Tenant>(tenants.values());
+		if (tenantList.isEmpty())
+			return;
+
+		// rotate start position so that tenants cut off by the budget go first next round
+		int start = rotation++ % tenantList.size();
+		final Map<Tenant, RequestPriority> priorities = new HashMap<Tenant, RequestPriority>(tenantList.size());
+		List<Tenant> snapshot = new ArrayList<Tenant>(tenantList.size());
+
+		for (int i = 0; i < tenantList.size(); i++)
+		{
+			Tenant tenant = tenantList.get((start + i) % tenantList.size());
+			priorities.put(tenant, tenant.getTopPriority());
+			snapshot.add(tenant);
+		}
+
+		// stable sort keeps the rotation order within each priority
+		Collections.sort(snapshot, new Comparator<Tenant>()
+		{
+			public int compare(Tenant a, Tenant b)
+			{
+				return priorities.get(a).compareTo(priorities.get(b));
+			}
+		});
+
+		int chunkSize = maxJobsPerTenant;
+		int budget = maxJobsPerTick;
+		List<Tenant> polled = new ArrayList<Tenant>(snapshot.size());
+		Map<Tenant, Integer> allocation = new HashMap<Tenant, Integer>(snapshot.size());
+
+		for (Tenant tenant : snapshot)
+		{
+			// chunks of a previous round are still running
+			if (tenant.isPolling())
+				continue;
+
+			polled.add(tenant);
+			allocation.put(tenant, 0);
+		}
+
+		// fair shares first, then the rest of the budget a chunk at a time to tenants with jobs left
+		boolean progress = true;
+		while (budget > 0 && progress)
+		{
+			progress = false;
+
+			for (Tenant tenant : polled)
+			{
+				int current = allocation.get(tenant);
+				int share = Math.min(Math.min(chunkSize, budget), tenant.size() - current);
+				if (share <= 0)
+					continue;
+
+				allocation.put(tenant, current + share);
+				budget -= share;
+				progress = true;
+
+				if (budget == 0)
+					break;
+			}
+		}
+
+		List<List<Integer>> chunks = new ArrayList<List<Integer>>();
+		List<Tenant> chunkTenants = new ArrayList<Tenant>();
+		List<List<Integer>> extraChunks = new ArrayList<List<Integer>>();
+		List<Tenant> extraChunkTenants = new ArrayList<Tenant>();
+
+		for (Tenant tenant : polled)
+		{
+			int allocated = allocation.get(tenant);
+
+			// budget ran out before the tenant's turn
+			if (allocated == 0 && tenant.size() > 0)
+				continue;
+
+			List<Integer> jobIds = allocated == 0 ? Collections.<Integer>emptyList() : tenant.take(allocated);
+
+			if (jobIds.isEmpty())
+			{
+				if (tenant.retireIfEmpty())
+					tenants.remove(tenant.client, tenant);
+				continue;
+			}
+
+			for (int from = 0; from < jobIds.size(); from += chunkSize)
+			{
+				boolean fair = from == 0;
+				(fair ? chunks : extraChunks).add(jobIds.subList(from, Math.min(from + chunkSize, jobIds.size())));
+				(fair ? chunkTenants : extraChunkTenants).add(tenant);
+			}
+		}
+
+		// fair chunks of all tenants are queued ahead of extra ones
+		chunks.addAll(extraChunks);
+		chunkTenants.addAll(extraChunkTenants);
+
+		for (int i = 0; i < chunks.size(); i++)
+		{
+			final Tenant tenant = chunkTenants.get(i);
+			final List<Integer> jobIds = chunks.get(i);
+			final RequestPriority priority = priorities.get(tenant);
+
+			tenant.startPoll();
+
+			try
+			{
+				pollExecutor.execute(new Runnable()
+				{
+					public void run()
+					{
+						try
+						{
+							tenant.poll(jobIds, priority);
+						}
+						finally
+						{
+							tenant.endPoll();
+						}
+					}
+				});
+			}
+			catch (RejectedExecutionException e)
+			{
+				// runtime is being closed
+				tenant.endPoll();
+				return;
+			}
+		}
+	}
+
+	private static ThreadFactory daemonThreads(final String name)
+	{
+		return new ThreadFactory()
+		{
+			private final AtomicInteger counter = new AtomicInteger();
+
+			public Thread newThread(Runnable r)
+			{
+				Thread thread = new Thread(r, name + "-" + counter.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+
+	/**
+	 * Pending jobs of a single client. Callers register and drop jobs while
+	 * the poller takes them, so jobs are kept in a concurrent map and queued
+	 * for polling in lock-free per-priority queues. Queue entries of jobs that
+	 * completed or were moved to a higher priority are dropped lazily by take()
+	 */
+	private static class Tenant
+	{
+		private final AppChains client;
+		private final ConcurrentMap<Integer, PendingJob> jobs = new ConcurrentHashMap<Integer, PendingJob>();
+		private final List<Queue<Integer>> queues;
+		private final AtomicInteger consecutiveFailures = new AtomicInteger();
+
+		/**
+		 * Number of the tenant's poll chunks running or waiting for a poll thread
+		 */
+		private final AtomicInteger polling = new AtomicInteger();
+
+		/**
+		 * Set while the poller checks whether the tenant can be dropped as empty
+		 */
+		private volatile boolean retired;
+
+		Tenant(AppChains client)
+		{
+			this.client = client;
+			this.queues = new ArrayList<Queue<Integer>>(RequestPriority.values().length);
+			for (int i = 0; i < RequestPriority.values().length; i++)
+				queues.add(new ConcurrentLinkedQueue<Integer>());
+		}
+
+		/**
+		 * @return future job result, null when tenant was dropped and the job should be registered again
+		 */
+		CompletableFuture<RawReportJobResult> add(Integer jobId, RequestPriority priority)
+		{
+			PendingJob created = new PendingJob(priority);
+			PendingJob job = jobs.putIfAbsent(jobId, created);
+
+			if (job == null)
+			{
+				job = created;
+				queues.get(priority.ordinal()).offer(jobId);
+			}
+			else if (job.raisePriority(priority))
+			{
+				queues.get(priority.ordinal()).offer(jobId);
+			}
+
+			// job is added before the flag is checked and the poller does it the other way round,
+			// so either the poller sees the job or the job sees the tenant being dropped
+			if (retired)
+			{
+				jobs.remove(jobId, created);
+				return null;
+			}
+
+			return job.future;
+		}
+
+		void remove(Integer jobId)
+		{
+			jobs.remove(jobId);
+		}
+
+		/**
+		 * @return true if some poll chunk of the tenant is still running
+		 */
+		boolean isPolling()
+		{
+			return polling.get() > 0;
+		}
+
+		void startPoll()
+		{
+			polling.incrementAndGet();
+		}
+
+		void endPoll()
+		{
+			polling.decrementAndGet();
+		}
+
+		/**
+		 * Marks tenant as dropped if it has no jobs
+		 * @return true if tenant should be removed
+		 */
+		boolean retireIfEmpty()
+		{
+			retired = true;
+			if (jobs.isEmpty())
+				return true;
+
+			retired = false;
+			return false;
+		}
+
+		/**
+		 * @return priority of the most urgent pending job
+		 */
+		RequestPriority getTopPriority()
+		{
+			for (RequestPriority priority : RequestPriority.values())
+				for (Integer jobId : queues.get(priority.ordinal()))
+					if (isQueued(jobId, priority))
+						return priority;
+
+			return RequestPriority.BULK;
+		}
+
+		int size()
+		{
+			return jobs.size();
+		}
+
+		/**
+		 * Takes oldest polled jobs of the highest priorities and moves them to
+		 * the end of their queues, only called by the poller thread
+		 */
+		List<Integer> take(int limit)
+		{
+			List<Integer> result = new ArrayList<Integer>(Math.min(limit, jobs.size()));
+			Set<Integer> taken = new HashSet<Integer>();
+
+			for (RequestPriority priority : RequestPriority.values())
+			{
+				Queue<Integer> queue = queues.get(priority.ordinal());
+				List<Integer> requeue = new ArrayList<Integer>();
+
+				while (result.size() < limit)
+				{
+					Integer jobId = queue.poll();
+					if (jobId == null)
+						break;
+
+					// stale and duplicate entries are not requeued
+					if (isQueued(jobId, priority) && taken.add(jobId))
+					{
+						result.add(jobId);
+						requeue.add(jobId);
+					}
+				}
+
+				queue.addAll(requeue);
+			}
+
+			return result;
+		}
+
+		private boolean isQueued(Integer jobId, RequestPriority priority)
+		{
+			PendingJob job = jobs.get(jobId);
+			return job != null && job.priority.get() == priority;
+		}
+
+		void poll(List<Integer> jobIds, RequestPriority priority)
+		{
+			List<RawReportJobResult> results;
+
+			try
+			{
+				results = client.pollJobs(jobIds, priority);
+			}
+			catch (RuntimeException e)
+			{
+				if (consecutiveFailures.incrementAndGet() < MAX_CONSECUTIVE_FAILURES)
+					return;
+
+				// the next jobs get their own allowance of failed polls
+				consecutiveFailures.set(0);
+
+				for (Integer jobId : jobIds)
+					fail(jobId, e);
+				return;
+			}
+
+			consecutiveFailures.set(0);
+
+			for (RawReportJobResult result : results)
+			{
+				if (!result.isCompleted())
+					continue;
+
+				PendingJob job = jobs.remove(result.getJobId());
+				if (job != null)
+					job.future.complete(result);
+			}
+		}
+
+		private void fail(Integer jobId, Exception e)
+		{
+			PendingJob job = jobs.remove(jobId);
+			if (job != null)
+				job.future.completeExceptionally(e);
+		}
+
+		void failAll(Exception e)
+		{
+			for (Integer jobId : new ArrayList<Integer>(jobs.keySet()))
+				fail(jobId, e);
+		}
+	}
+
+	/**
+	 * Job awaited by one or more calls, polled with the highest priority of its callers
+	 */
+	private static class PendingJob
+	{
+		private final CompletableFuture<RawReportJobResult> future = new CompletableFuture<RawReportJobResult>();
+		private final AtomicReference<RequestPriority> priority;
+
+		PendingJob(RequestPriority priority)
+		{
+			this.priority = new AtomicReference<RequestPriority>(priority);
+		}
+
+		/**
+		 * @return true if priority was raised
+		 */
+		boolean raisePriority(RequestPriority raised)
+		{
+			while (true)
+			{
+				RequestPriority current = priority.get();
+				if (raised.compareTo(current) >= 0)
+					return false;
+				if (priority.compareAndSet(current, raised))
+					return true;
+			}
+		}
+	}
+}
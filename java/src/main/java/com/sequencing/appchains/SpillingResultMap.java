@@ -0,0 +1,298 @@
+package com.sequencing.appchains;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * Map of batch results keyed by chain identifier that keeps only a limited
+ * number of values in heap. Values beyond the limit are encoded and appended
+ * to a memory-mapped spill file; an in-heap index keeps their location and
+ * they are decoded again on every read.
+ *
+ * Spill file is append-only: replacing or removing spilled value doesn't
+ * reclaim its space. The file is deleted when the map is closed, so the map
+ * must be closed once results are no longer needed; see {@link #close()}.
+ * @param <V> result type
+ */
+public class SpillingResultMap<V> extends AbstractMap<String, V> implements Closeable
+{
+	/**
+	 * Size of memory-mapped regions the spill file is extended with
+	 */
+	private final static int SEGMENT_SIZE = 16 * 1024 * 1024;
+
+	/**
+	 * Converts values to bytes and back
+	 * @param <V> result type
+	 */
+	public interface Codec<V>
+	{
+		byte[] encode(V value);
+
+		V decode(byte[] data);
+	}
+
+	private final int maxValuesInHeap;
+	private final Codec<V> codec;
+
+	private final Map<String, V> heap = new LinkedHashMap<String, V>();
+	private final Map<String, Location> spilled = new LinkedHashMap<String, Location>();
+	private final List<MappedByteBuffer> segments = new ArrayList<MappedByteBuffer>();
+
+	private File file;
+	private RandomAccessFile spillFile;
+	private long fileLength;
+	private boolean closed;
+
+	/**
+	 * @param maxValuesInHeap number of values kept in heap before spilling to disk
+	 * @param codec value serializer
+	 */
+	public SpillingResultMap(int maxValuesInHeap, Codec<V> codec)
+	{
+		if (maxValuesInHeap < 0)
+			throw new IllegalArgumentException("Number of values in heap can't be negative");
+
+		this.maxValuesInHeap = maxValuesInHeap;
+		this.codec = codec;
+	}
+
+	/**
+	 * @return number of values currently stored on disk
+	 */
+	public synchronized int getSpilledCount()
+	{
+		return spilled.size();
+	}
+
+	/**
+	 * @return size of the spill file in bytes
+	 */
+	public synchronized long getSpillFileSize()
+	{
+		return fileLength;
+	}
+
+	/**
+	 * Stores value, replaced spilled value is dropped without decoding it
+	 * @return previous value if it was kept in heap, null otherwise
+	 */
+	@Override
+	public synchronized V put(String key, V value)
+	{
+		ensureOpen();
+
+		V previous = heap.get(key);
+		spilled.remove(key);
+
+		if (heap.containsKey(key) || heap.size() < maxValuesInHeap)
+			heap.put(key, value);
+		else
+			spilled.put(key, append(codec.encode(value)));
+
+		return previous;
+	}
+
+	@Override
+	public synchronized V get(Object key)
+	{
+		ensureOpen();
+
+		V value = heap.get(key);
+		if (value != null)
+			return value;
+
+		Location location = spilled.get(key);
+		return location == null ? null : codec.decode(read(location));
+	}
+
+	@Override
+	public synchronized boolean containsKey(Object key)
+	{
+		return heap.containsKey(key) || spilled.containsKey(key);
+	}
+
+	@Override
+	public synchronized V remove(Object key)
+	{
+		V previous = get(key);
+		heap.remove(key);
+		spilled.remove(key);
+		return previous;
+	}
+
+	@Override
+	public synchronized int size()
+	{
+		return heap.size() + spilled.size();
+	}
+
+	@Override
+	public synchronized void clear()
+	{
+		heap.clear();
+		spilled.clear();
+	}
+
+	@Override
+	public synchronized Set<String> keySet()
+	{
+		Set<String> keys = new LinkedHashSet<String>(heap.keySet());
+		keys.addAll(spilled.keySet());
+		return Collections.unmodifiableSet(keys);
+	}
+
+	/**
+	 * Entries are backed by the map and decode spilled values lazily on {@code getValue()}
+	 */
+	@Override
+	public Set<Entry<String, V>> entrySet()
+	{
+		final Set<String> keys = keySet();
+
+		return new AbstractSet<Entry<String, V>>()
+		{
+			@Override
+			public Iterator<Entry<String, V>> iterator()
+			{
+				final Iterator<String> keyIterator = keys.iterator();
+
+				return new Iterator<Entry<String, V>>()
+				{
+					public boolean hasNext()
+					{
+						return keyIterator.hasNext();
+					}
+
+					public Entry<String, V> next()
+					{
+						final String key = keyIterator.next();
+
+						return new AbstractMap.SimpleEntry<String, V>(key, null)
+						{
+							@Override
+							public V getValue()
+							{
+								return get(key);
+							}
+
+							@Override
+							public V setValue(V value)
+							{
+								return put(key, value);
+							}
+						};
+					}
+
+					public void remove()
+					{
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+
+			@Override
+			public int size()
+			{
+				return keys.size();
+			}
+		};
+	}
+
+	/**
+	 * Releases spill file. Spilled values are not accessible afterwards.
+	 * Mapped segments are only unmapped once garbage collected, so on Linux
+	 * the file's disk space is reclaimed after GC, and where a mapped file
+	 * can't be deleted (Windows) it is deleted on JVM exit instead
+	 */
+	public synchronized void close() throws IOException
+	{
+		if (closed)
+			return;
+
+		closed = true;
+		heap.clear();
+		spilled.clear();
+		segments.clear();
+
+		if (spillFile != null)
+		{
+			spillFile.close();
+			if (!file.delete())
+				file.deleteOnExit();
+		}
+	}
+
+	private void ensureOpen()
+	{
+		if (closed)
+			throw new IllegalStateException("Result map is closed");
+	}
+
+	/**
+	 * Appends value to the spill file mapping new segment when current one is full
+	 */
+	private Location append(byte[] data)
+	{
+		try
+		{
+			if (spillFile == null)
+			{
+				file = File.createTempFile("appchains-batch", ".spill");
+				spillFile = new RandomAccessFile(file, "rw");
+			}
+
+			MappedByteBuffer segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+
+			if (segment == null || segment.remaining() < data.length)
+			{
+				// values larger than a segment get a dedicated mapping of their own size
+				int size = Math.max(SEGMENT_SIZE, data.length);
+				segment = spillFile.getChannel().map(FileChannel.MapMode.READ_WRITE, fileLength, size);
+				segments.add(segment);
+				fileLength += size;
+			}
+
+			Location location = new Location(segments.size() - 1, segment.position(), data.length);
+			segment.put(data);
+			return location;
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException(String.format("Unable to spill batch result to disk: %s", e.getMessage()), e);
+		}
+	}
+
+	private byte[] read(Location location)
+	{
+		ByteBuffer view = segments.get(location.segment).duplicate();
+		view.position(location.offset);
+
+		byte[] data = new byte[location.length];
+		view.get(data);
+		return data;
+	}
+
+	/**
+	 * Position of a spilled value
+	 */
+	private static class Location
+	{
+		private final int segment;
+		private final int offset;
+		private final int length;
+
+		Location(int segment, int offset, int length)
+		{
+			this.segment = segment;
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+}
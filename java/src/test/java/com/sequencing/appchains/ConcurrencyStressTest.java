@@ -0,0 +1,472 @@
+package com.sequencing.appchains;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sequencing.appchains.AppChains.Report;
+import com.sequencing.appchains.AppChains.TextResultValue;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Concurrency stress check of shared clients: many threads share one client
+ * per token and run single, batch and cohort calls of mixed priorities
+ * against a local stub while other threads race to refresh the token. Runs
+ * twice, first with {@link AppChains} views of one shared runtime, then with
+ * standalone clients owning their runtimes. Every report must carry the
+ * result of its own request, every request must be sent with an issued
+ * token, and once all calls complete no jobs, request slots or tenants may
+ * be left behind.
+ */
+public class ConcurrencyStressTest
+{
+	private final static Charset UTF8 = Charset.forName("UTF-8");
+
+	private final static int THREADS = 8;
+
+	private final static int CALLS = 40;
+
+	private final static int TENANTS = 4;
+
+	private final static int REFRESHERS_PER_TENANT = 2;
+
+	private final static long REFRESH_INTERVAL_MILLIS = 5;
+
+	/**
+	 * Status polls after which the stub completes a job
+	 */
+	private final static int POLLS_TO_COMPLETE = 2;
+
+	private final static Pattern JOB_ID = Pattern.compile("(\\d+)");
+
+	private final Set<String> issuedTokens = ConcurrentHashMap.<String>newKeySet();
+	private final ConcurrentMap<String, AtomicInteger> requestsByToken = new ConcurrentHashMap<String, AtomicInteger>();
+	private final ConcurrentMap<Integer, String> jobResults = new ConcurrentHashMap<Integer, String>();
+	private final ConcurrentMap<Integer, AtomicInteger> jobPolls = new ConcurrentHashMap<Integer, AtomicInteger>();
+	private final AtomicInteger nextJobId = new AtomicInteger(1);
+	private final AtomicInteger rejectedRequests = new AtomicInteger();
+	private final AtomicInteger installedTokens = new AtomicInteger();
+	private final List<String> errors = new ArrayList<String>();
+
+	@Test
+	public void sharedRuntimeAndStandaloneClients() throws Exception
+	{
+		run(THREADS, CALLS);
+		assertEquals(Collections.<String>emptyList(), errors, "Concurrency checks failed");
+	}
+
+	private void run(int threads, int calls) throws Exception
+	{
+		HttpServer server = startStub();
+		AppChainsEndpoint endpoint = new AppChainsEndpoint("http", "localhost", server.getAddress().getPort());
+
+		try
+		{
+			AppChainsRuntime shared = new AppChainsRuntime(Arrays.asList(endpoint), endpoint);
+			List<AppChains> views = new ArrayList<AppChains>(TENANTS);
+			for (int i = 0; i < TENANTS; i++)
+				views.add(shared.forToken(issueToken("shared", i)));
+
+			runPhase("shared runtime", views, Arrays.asList(shared), threads, calls);
+
+			// built the way new AppChains(token, host) builds its own runtime, so that the runtime can be checked
+			List<AppChains> standalone = new ArrayList<AppChains>(TENANTS);
+			List<AppChainsRuntime> runtimes = new ArrayList<AppChainsRuntime>(TENANTS);
+			for (int i = 0; i < TENANTS; i++)
+			{
+				AppChainsRuntime runtime = new AppChainsRuntime(Arrays.asList(endpoint), endpoint, false);
+				runtimes.add(runtime);
+				standalone.add(new AppChains(issueToken("standalone", i), runtime));
+			}
+
+			runPhase("standalone clients", standalone, runtimes, threads, calls);
+		}
+		finally
+		{
+			server.stop(0);
+		}
+	}
+
+	private String issueToken(String phase, int tenant)
+	{
+		String token = String.format("token-%s-%d-0", phase, tenant);
+		issuedTokens.add(token);
+		return token;
+	}
+
+	/**
+	 * Runs workers and token refreshers over given clients and checks their runtimes once all calls complete
+	 * @param name phase name
+	 * @param clients client per tenant
+	 * @param runtimes runtimes the clients use
+	 */
+	private void runPhase(String name, final List<AppChains> clients, List<AppChainsRuntime> runtimes,
+			int threads, final int calls) throws InterruptedException
+	{
+		for (AppChainsRuntime runtime : runtimes)
+		{
+			runtime.setPollIntervalMillis(20);
+			runtime.setBatchSubmitSize(3);
+		}
+
+		requestsByToken.clear();
+		int jobsBefore = nextJobId.get(), installedBefore = installedTokens.get(), rejectedBefore = rejectedRequests.get();
+
+		final CountDownLatch workersDone = new CountDownLatch(threads);
+		final AtomicInteger completedCalls = new AtomicInteger();
+		List<Thread> refreshers = new ArrayList<Thread>();
+		long started = System.nanoTime();
+
+		for (int i = 0; i < TENANTS * REFRESHERS_PER_TENANT; i++)
+			refreshers.add(startThread("refresher-" + i, refresher(clients.get(i % TENANTS), workersDone)));
+
+		for (int i = 0; i < threads; i++)
+		{
+			final int worker = i;
+			startThread("worker-" + i, new Runnable()
+			{
+				public void run()
+				{
+					try
+					{
+						for (int call = 0; call < calls; call++)
+						{
+							runCall(clients.get((worker + call) % TENANTS), worker, call);
+							completedCalls.incrementAndGet();
+						}
+					}
+					catch (RuntimeException e)
+					{
+						error("worker %d failed: %s", worker, e);
+					}
+					finally
+					{
+						workersDone.countDown();
+					}
+				}
+			});
+		}
+
+		workersDone.await();
+		for (Thread refresher : refreshers)
+			refresher.join();
+
+		long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+		for (AppChainsRuntime runtime : runtimes)
+		{
+			checkNothingLeft(runtime);
+			runtime.close();
+		}
+
+		System.out.println(String.format("%s: calls: %d of %d in %d ms", name, completedCalls.get(), threads * calls,
+				elapsedMillis));
+		System.out.println(String.format("%s: jobs: %d, tokens installed: %d, tokens used: %d, rejected requests: %d",
+				name, nextJobId.get() - jobsBefore, installedTokens.get() - installedBefore, requestsByToken.size(),
+				rejectedRequests.get() - rejectedBefore));
+
+		if (rejectedRequests.get() > rejectedBefore)
+			error("%s: %d requests were sent with a token that was never issued", name,
+					rejectedRequests.get() - rejectedBefore);
+		if (requestsByToken.size() <= TENANTS)
+			error("%s: refreshed tokens were never used", name);
+	}
+
+	/**
+	 * Runs one call of a kind and priority picked by worker and call number and checks its reports
+	 */
+	private void runCall(AppChains client, int worker, int call)
+	{
+		RequestPriority priority = RequestPriority.values()[(worker + call) % RequestPriority.values().length];
+		CallHandle handle = CallHandle.withTimeout(60, TimeUnit.SECONDS).withPriority(priority);
+		String datasourceId = String.format("%d-%d", worker, call);
+
+		switch (call % 3)
+		{
+			case 0:
+				check(client.getReport("StartApp", "Chain" + worker, datasourceId, handle),
+						"Chain" + worker + "|" + datasourceId, datasourceId);
+				break;
+
+			case 1:
+				Map<String, String> chains = new LinkedHashMap<String, String>();
+				chains.put("Chain9", datasourceId);
+				chains.put("Chain88", datasourceId);
+
+				Map<String, Report> batch = client.getReportBatch("StartAppBatch", chains, handle);
+				for (Map.Entry<String, String> chain : chains.entrySet())
+					check(batch.get(chain.getKey()), chain.getKey() + "|" + chain.getValue(), datasourceId);
+				break;
+
+			default:
+				List<ReportRequest> cohort = new ArrayList<ReportRequest>();
+				for (int sample = 0; sample < 5; sample++)
+					cohort.add(new ReportRequest("Chain9", datasourceId + "-" + sample));
+				cohort.add(new ReportRequest("variant", "Chain9", datasourceId + "-0").withParameter("variant", "b"));
+
+				Map<String, Report> reports = client.getReportCohort("StartAppBatch", cohort, handle);
+				for (ReportRequest request : cohort)
+				{
+					String expected = "Chain9|" + request.getDatasourceId();
+					if (!request.getParameters().isEmpty())
+						expected += "|variant=b";
+					check(reports.get(request.getRequestId()), expected, request.getRequestId());
+				}
+				break;
+		}
+
+		if (!handle.getJobIds().isEmpty())
+			error("call %s left jobs %s in its handle", datasourceId, handle.getJobIds());
+	}
+
+	private void check(Report report, String expected, String request)
+	{
+		if (report == null || !report.isSucceeded())
+		{
+			error("no successful report for %s", request);
+			return;
+		}
+
+		String actual = ((TextResultValue) report.getResults().get(0).getValue()).getData();
+		if (!expected.equals(actual))
+			error("report for %s is %s instead of %s", request, actual, expected);
+	}
+
+	/**
+	 * Keeps replacing tenant's token while workers run, two refreshers per
+	 * tenant race for the same token and only one of them may win
+	 */
+	private Runnable refresher(final AppChains client, final CountDownLatch workersDone)
+	{
+		// refreshed tokens keep the phase and tenant of the issued one
+		final String prefix = client.getToken().substring(0, client.getToken().lastIndexOf('-'));
+
+		return new Runnable()
+		{
+			private int generation;
+
+			public void run()
+			{
+				try
+				{
+					while (!workersDone.await(REFRESH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS))
+					{
+						String current = client.getToken();
+						String refreshed = String.format("%s-%d-%s", prefix, ++generation, Thread.currentThread().getName());
+						issuedTokens.add(refreshed);
+
+						if (client.replaceToken(current, refreshed))
+							installedTokens.incrementAndGet();
+					}
+				}
+				catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+				}
+			}
+		};
+	}
+
+	private void checkNothingLeft(AppChainsRuntime runtime) throws InterruptedException
+	{
+		SharedJobPoller poller = runtime.getPoller();
+
+		// standalone runtimes poll on the calling threads
+		if (poller != null)
+		{
+			// the poller drops empty tenants on its next round
+			long deadline = System.currentTimeMillis() + 5000;
+			while (poller.getTenantCount() > 0 && System.currentTimeMillis() < deadline)
+				Thread.sleep(20);
+
+			if (poller.getPendingCount() != 0)
+				error("%d jobs are still polled", poller.getPendingCount());
+			if (poller.getTenantCount() != 0)
+				error("%d tenants are still registered", poller.getTenantCount());
+		}
+
+		if (!runtime.jobStatuses.isEmpty())
+			error("%d jobs are still tracked as in flight", runtime.jobStatuses.size());
+		if (runtime.requestGate.getInUse() != 0)
+			error("%d request slots are still taken", runtime.requestGate.getInUse());
+
+		for (Map.Entry<String, Integer> outstanding : runtime.endpointPool.getOutstandingRequests().entrySet())
+			if (outstanding.getValue() != 0)
+				error("%d requests are still outstanding on %s", outstanding.getValue(), outstanding.getKey());
+	}
+
+	private synchronized void error(String format, Object... args)
+	{
+		if (errors.size() < 20)
+			errors.add(String.format(format, args));
+	}
+
+	private static Thread startThread(String name, Runnable runnable)
+	{
+		Thread thread = new Thread(runnable, name);
+		thread.start();
+		return thread;
+	}
+
+	private HttpServer startStub() throws IOException
+	{
+		// otherwise the stub delays every response by a delayed ACK round, read once when the first server starts
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+		HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.setExecutor(Executors.newFixedThreadPool(16));
+
+		server.createContext("/", new HttpHandler()
+		{
+			public void handle(HttpExchange exchange) throws IOException
+			{
+				String body = read(exchange.getRequestBody());
+				String path = exchange.getRequestURI().getPath();
+				String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+				String token = authorization == null ? "" : authorization.replaceFirst("^Bearer ", "");
+
+				if (!issuedTokens.contains(token))
+				{
+					rejectedRequests.incrementAndGet();
+					respond(exchange, 401, "{}");
+					return;
+				}
+
+				AtomicInteger count = requestsByToken.putIfAbsent(token, new AtomicInteger(1));
+				if (count != null)
+					count.incrementAndGet();
+
+				if (path.endsWith("StartAppBatch"))
+					respond(exchange, 200, startJobs(body, true));
+				else if (path.endsWith("StartApp"))
+					respond(exchange, 200, startJobs(body, false));
+				else if (path.endsWith("GetAppResultsBatch"))
+					respond(exchange, 200, pollJobs(body));
+				else if (path.endsWith("GetAppResults"))
+					respond(exchange, 200, pollJob(Integer.valueOf(exchange.getRequestURI().getQuery().replace("idJob=", ""))));
+				else
+					respond(exchange, 404, "{}");
+			}
+		});
+
+		server.start();
+		return server;
+	}
+
+	/**
+	 * Creates job per chain of the request, result of a job is its chain,
+	 * datasource and extra parameters
+	 */
+	private String startJobs(String body, boolean batch)
+	{
+		JsonObject request = JsonParser.parseString(body).getAsJsonObject();
+
+		if (!batch)
+			return startJob(request, false);
+
+		StringBuilder response = new StringBuilder("[");
+		for (JsonElement chain : request.getAsJsonArray("Pars"))
+		{
+			if (response.length() > 1)
+				response.append(',');
+			response.append(startJob(chain.getAsJsonObject(), true));
+		}
+
+		return response.append(']').toString();
+	}
+
+	private String startJob(JsonObject chain, boolean batch)
+	{
+		String appCode = chain.get("AppCode").getAsString();
+		StringBuilder result = new StringBuilder(appCode);
+
+		for (JsonElement parameter : chain.getAsJsonArray("Pars"))
+		{
+			String name = parameter.getAsJsonObject().get("Name").getAsString();
+			String value = parameter.getAsJsonObject().get("Value").getAsString();
+			result.append('|').append(name.equals("dataSourceId") ? value : name + "=" + value);
+		}
+
+		int jobId = nextJobId.getAndIncrement();
+		jobResults.put(jobId, result.toString());
+		jobPolls.put(jobId, new AtomicInteger());
+
+		String job = job(jobId, jobId % 3 == 0);
+		return batch ? String.format("{\"Key\":\"%s\",\"Value\":%s}", appCode, job) : job;
+	}
+
+	private String pollJobs(String body)
+	{
+		StringBuilder response = new StringBuilder("[");
+		Matcher matcher = JOB_ID.matcher(body);
+
+		while (matcher.find())
+		{
+			if (response.length() > 1)
+				response.append(',');
+			response.append(pollJob(Integer.valueOf(matcher.group(1))));
+		}
+
+		return response.append(']').toString();
+	}
+
+	private String pollJob(Integer jobId)
+	{
+		return job(jobId, jobPolls.get(jobId).incrementAndGet() >= POLLS_TO_COMPLETE);
+	}
+
+	private String job(int jobId, boolean completed)
+	{
+		return String.format("{\"Status\":{\"IdJob\":%d,\"Status\":\"%s\",\"CompletedSuccesfully\":%s},"
+				+ "\"ResultProps\":[{\"Name\":\"Result\",\"Type\":\"PlainText\",\"Value\":\"%s\"}]}",
+				jobId, completed ? "Completed" : "Running", completed, completed ? jobResults.get(jobId) : "");
+	}
+
+	private static String read(InputStream stream) throws IOException
+	{
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int read;
+
+		while ((read = stream.read(buffer)) != -1)
+			result.write(buffer, 0, read);
+
+		return new String(result.toByteArray(), UTF8);
+	}
+
+	private static void respond(HttpExchange exchange, int status, String body) throws IOException
+	{
+		byte[] response = body.getBytes(UTF8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		exchange.sendResponseHeaders(status, response.length);
+
+		OutputStream out = exchange.getResponseBody();
+		out.write(response);
+		out.close();
+	}
+}
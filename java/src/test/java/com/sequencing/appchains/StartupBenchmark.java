@@ -0,0 +1,117 @@
+package com.sequencing.appchains;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import com.sequencing.appchains.AppChains.Report;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Measures cold start of the client: time from JVM start to the first
+ * completed getReport against a local stub server that completes every job
+ * immediately, followed by the latency of warm calls. The same run is used
+ * as the training workload for the AppCDS archive built by the appcds profile,
+ * which launches this file as a single source program so that the archived
+ * class path holds only the jar and its dependencies.
+ *
+ * Usage: StartupBenchmark [--warm-calls 20]
+ */
+public class StartupBenchmark
+{
+	private final static Charset UTF8 = Charset.forName("UTF-8");
+
+	private final static int DEFAULT_WARM_CALLS = 20;
+
+	/**
+	 * Response of the stub to every request, a job completed with a single text result
+	 */
+	private final static String COMPLETED_JOB = "{\"Status\":{\"IdJob\":1,\"Status\":\"Completed\","
+			+ "\"CompletedSuccesfully\":true},\"ResultProps\":[{\"Name\":\"RiskDescription\","
+			+ "\"Type\":\"PlainText\",\"Value\":\"Low risk\"}]}";
+
+	public static void main(String[] args) throws Exception
+	{
+		int warmCalls = args.length == 2 && args[0].equals("--warm-calls") ? Integer.parseInt(args[1]) : DEFAULT_WARM_CALLS;
+		HttpServer server = startStub();
+
+		try
+		{
+			AppChainsEndpoint endpoint = new AppChainsEndpoint("http", "localhost", server.getAddress().getPort());
+			AppChains chains = new AppChains("benchmark", Arrays.asList(endpoint), endpoint);
+
+			long started = System.nanoTime();
+			Report report = chains.getReport("StartApp", "Chain9", "227680");
+			long firstCallNanos = System.nanoTime() - started;
+
+			if (!report.isSucceeded())
+				throw new RuntimeException("Stub report didn't succeed");
+
+			System.out.println(String.format("time to first report: %d ms since JVM start", uptimeMillis()));
+			System.out.println(String.format("first getReport: %.1f ms", firstCallNanos / 1e6));
+
+			if (warmCalls > 0)
+			{
+				started = System.nanoTime();
+				for (int i = 0; i < warmCalls; i++)
+					chains.getReport("StartApp", "Chain9", "227680");
+
+				System.out.println(String.format("warm getReport: %.2f ms average over %d calls",
+						(System.nanoTime() - started) / 1e6 / warmCalls, warmCalls));
+			}
+		}
+		finally
+		{
+			server.stop(0);
+		}
+	}
+
+	/**
+	 * @return milliseconds since JVM start, -1 where the runtime doesn't report it
+	 */
+	private static long uptimeMillis()
+	{
+		try
+		{
+			return ManagementFactory.getRuntimeMXBean().getUptime();
+		}
+		catch (RuntimeException e)
+		{
+			return -1;
+		}
+	}
+
+	private static HttpServer startStub() throws IOException
+	{
+		// otherwise the stub delays every response by a delayed ACK round, read once when the first server starts
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+		HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+
+		server.createContext("/", new HttpHandler()
+		{
+			public void handle(HttpExchange exchange) throws IOException
+			{
+				InputStream request = exchange.getRequestBody();
+				byte[] buffer = new byte[4096];
+				while (request.read(buffer) != -1) {}
+
+				byte[] response = COMPLETED_JOB.getBytes(UTF8);
+				exchange.getResponseHeaders().set("Content-Type", "application/json");
+				exchange.sendResponseHeaders(200, response.length);
+
+				OutputStream out = exchange.getResponseBody();
+				out.write(response);
+				out.close();
+			}
+		});
+
+		server.start();
+		return server;
+	}
+}